@@ -0,0 +1,261 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BrainBatch
+ *
+ * @author Daniel Morgan
+ * @description Runs many bp programs concurrently on a bounded pool of
+ *              threads. Every job gets its own {@link BrainParser}, and so its
+ *              own tape and input and output buffers, while compiled programs
+ *              are shared through a single {@link BrainCache}. A job which
+ *              fails is recorded in its {@link Result} instead of stopping the
+ *              rest of the batch.
+ *              <p>
+ *              Jobs are read from either a directory, where every .bp file is a
+ *              job reading its input from the file of the same name ending in
+ *              .in if there is one, or a manifest file listing one job per line
+ *              as <code>program.bp [input]</code> (blank lines and lines
+ *              starting with # are skipped, paths are relative to the
+ *              manifest). The output of every job is written next to its
+ *              program, to the file of the same name ending in .out.
+ *              <p>
+ *              Every job can be given a step and time limit so a program which
+ *              never ends only holds up its own thread, and the whole batch can
+ *              be stopped from another thread with {@link #cancel()}.
+ */
+public class BrainBatch {
+    /** The language standard every job is run with */
+    private final String languageStandard;
+    /** The number of jobs run at once */
+    private final int threads;
+    /** Programs compiled by any job, shared by all of them */
+    private final BrainCache programCache = new BrainCache(1024);
+    /** Stops every job still running when the batch is cancelled */
+    private final BrainCancellation cancellation = new BrainCancellation();
+    /** The most steps each job may run for */
+    private long stepLimit = Long.MAX_VALUE;
+    /** The most time in milliseconds each job may run for, or 0 for no limit */
+    private long timeLimit = 0;
+
+    /**
+     * Creates a batch runner.
+     *
+     * @param _languageStandard The language standard every job is run with.
+     * @param _threads          The number of jobs run at once.
+     */
+    public BrainBatch(String _languageStandard, int _threads) {
+        if (_threads < 1)
+            throw new IllegalArgumentException("A batch needs at least 1 thread but was given " + _threads);
+        languageStandard = _languageStandard;
+        threads = _threads;
+    }
+
+    /**
+     * Reads the jobs of a batch from a directory or a manifest.
+     *
+     * @param source A directory of .bp files or a manifest file.
+     * @return The jobs, in order.
+     * @throws IOException If the manifest cannot be read.
+     * @throws BrainIOException If the directory cannot be listed.
+     */
+    public static List<Job> readJobs(File source) throws IOException {
+        List<Job> jobs = new ArrayList<Job>();
+        if (source.isDirectory()) {
+            File[] files = source.listFiles((dir, name) -> name.endsWith(".bp"));
+            if (files == null)
+                throw new BrainIOException("Error listing batch directory: " + source);
+            Arrays.sort(files);
+            for (File program : files) {
+                File input = sibling(program, ".in");
+                jobs.add(new Job(program, input.exists() ? input : null));
+            }
+            return jobs;
+        }
+        File directory = source.getAbsoluteFile().getParentFile();
+        try (BufferedReader reader = new BufferedReader(new FileReader(source))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] paths = line.split("\\s+");
+                File input = paths.length > 1 ? resolve(directory, paths[1]) : null;
+                jobs.add(new Job(resolve(directory, paths[0]), input));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs every job, at most {@link #threads} at once, and waits for all of
+     * them to finish.
+     *
+     * @param jobs The jobs to run.
+     * @return The result of every job, in the same order as the jobs.
+     */
+    public List<Result> run(List<Job> jobs) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Result>> tasks = new ArrayList<Callable<Result>>();
+            for (Job job : jobs)
+                tasks.add(() -> run(job));
+            List<Result> results = new ArrayList<Result>();
+            for (Future<Result> future : pool.invokeAll(tasks))
+                results.add(future.get());
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the batch to finish", e);
+        } catch (ExecutionException e) {
+            // run(Job) catches everything a job can throw
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a single job on its own parser.
+     *
+     * @param job The job to run.
+     * @return The result of the job.
+     */
+    private Result run(Job job) {
+        long start = System.nanoTime();
+        File outputFile = sibling(job.program, ".out");
+        BrainParser parser = new BrainParser(languageStandard);
+        try (InputStream in = job.input != null ? new FileInputStream(job.input) : new ByteArrayInputStream(new byte[0]);
+                OutputStream out = new FileOutputStream(outputFile)) {
+            parser.setProgramCache(programCache);
+            parser.setStepLimit(stepLimit);
+            parser.setTimeLimit(timeLimit);
+            parser.setCancellation(cancellation);
+            parser.setInput(new BrainInput(in));
+            parser.setOutput(new BrainOutput(out));
+            parser.runProgram(job.program);
+            return new Result(job, null, System.nanoTime() - start, outputFile.length(), parser.getSteps());
+        } catch (Exception e) {
+            String error = e.getMessage() != null ? e.getMessage() : e.toString();
+            return new Result(job, error, System.nanoTime() - start, outputFile.length(), parser.getSteps());
+        }
+    }
+
+    /**
+     * Stops every job which is still running or yet to start the next time it
+     * checks its limits, failing it with a {@link BrainLimitException}.
+     */
+    public void cancel() {
+        cancellation.cancel();
+    }
+
+    /**
+     * Sets the most steps each job may run for before it is stopped.
+     */
+    public void setStepLimit(long _stepLimit) {
+        stepLimit = _stepLimit;
+    }
+
+    /**
+     * Gets the most steps each job may run for.
+     */
+    public long getStepLimit() {
+        return stepLimit;
+    }
+
+    /**
+     * Sets the most time in milliseconds each job may run for before it is
+     * stopped, or 0 for no limit.
+     */
+    public void setTimeLimit(long _timeLimit) {
+        timeLimit = _timeLimit;
+    }
+
+    /**
+     * Gets the most time in milliseconds each job may run for, or 0 for no
+     * limit.
+     */
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Gets the file next to a program with the same name but another extension.
+     */
+    private static File sibling(File program, String extension) {
+        String name = program.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(program.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + extension);
+    }
+
+    /**
+     * Resolves a path from a manifest against the directory of the manifest.
+     */
+    private static File resolve(File directory, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(directory, path);
+    }
+
+    /** A program to run along with the file its input is read from */
+    public static class Job {
+        /** The .bp file to run */
+        public final File program;
+        /** The file input is read from, or null if the program gets no input */
+        public final File input;
+
+        /**
+         * Creates a job.
+         *
+         * @param _program The .bp file to run.
+         * @param _input   The file input is read from, or null for no input.
+         */
+        public Job(File _program, File _input) {
+            program = _program;
+            input = _input;
+        }
+    }
+
+    /** The outcome of running a {@link Job} */
+    public static class Result {
+        /** The job which was run */
+        public final Job job;
+        /** Why the job failed, or null if it succeeded */
+        public final String error;
+        /** How long the job took in nanoseconds, including compiling */
+        public final long nanos;
+        /** The number of bytes of output the job wrote */
+        public final long outputBytes;
+        /** The number of steps the program ran for, including a program which failed */
+        public final long steps;
+
+        Result(Job _job, String _error, long _nanos, long _outputBytes, long _steps) {
+            job = _job;
+            error = _error;
+            nanos = _nanos;
+            outputBytes = _outputBytes;
+            steps = _steps;
+        }
+
+        /**
+         * Checks if the job ran to completion.
+         */
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+}
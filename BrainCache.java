@@ -0,0 +1,187 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BrainCache
+ *
+ * @author Daniel Morgan
+ * @description A bounded cache of {@link BrainProgram compiled programs} which
+ *              evicts the least recently used program once it is full. Programs
+ *              are keyed by a hash of their source together with the language
+ *              standard and cell settings they were compiled for, so the same
+ *              source compiled for a different standard is cached separately.
+ *              All methods are safe to call from multiple threads.
+ */
+public class BrainCache {
+    /** The default number of programs held by a cache */
+    private static final int DEFAULT_CAPACITY = 64;
+    /** The maximum number of programs held by this cache */
+    private final int capacity;
+    /** The cached programs, in order from least to most recently used */
+    private final LinkedHashMap<String, BrainProgram> programs;
+    /** How many lookups found their program in the cache */
+    private long hits = 0;
+    /** How many lookups had to compile their program */
+    private long misses = 0;
+    /** How many programs have been evicted to make room for others */
+    private long evictions = 0;
+
+    /**
+     * Creates a cache holding at most the passed number of programs.
+     *
+     * @param _capacity The maximum number of programs to hold.
+     */
+    public BrainCache(int _capacity) {
+        if (_capacity < 1)
+            throw new IllegalArgumentException("Cache capacity must be at least 1 but was " + _capacity);
+        capacity = _capacity;
+        programs = new LinkedHashMap<String, BrainProgram>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BrainProgram> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_CAPACITY} programs.
+     */
+    public BrainCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Gets the compiled form of a program, compiling it with the passed parser
+     * if it is not already cached.
+     *
+     * @param program A string containing a valid bp program.
+     * @param parser  The parser to compile the program with.
+     * @return The compiled program.
+     */
+    public BrainProgram get(String program, BrainParser parser) {
+        String key = key(program, parser);
+        synchronized (this) {
+            BrainProgram compiled = programs.get(key);
+            if (compiled != null) {
+                hits++;
+                return compiled;
+            }
+            misses++;
+        }
+        // compile outside the lock so other programs can still be looked up meanwhile
+        BrainProgram compiled = parser.compile(program);
+        synchronized (this) {
+            BrainProgram raced = programs.get(key);
+            if (raced != null)
+                return raced;
+            programs.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Compiles and caches programs ahead of time, without counting them as misses.
+     *
+     * @param parser The parser to compile the programs with.
+     * @param sources Strings containing valid bp programs.
+     */
+    public void warm(BrainParser parser, String... sources) {
+        for (String program : sources) {
+            String key = key(program, parser);
+            BrainProgram compiled = parser.compile(program);
+            synchronized (this) {
+                programs.put(key, compiled);
+            }
+        }
+    }
+
+    /**
+     * Compiles and caches programs from files ahead of time.
+     *
+     * @see #warm(BrainParser, String...)
+     * @param parser The parser to compile the programs with.
+     * @param files  Files containing valid bp programs.
+     */
+    public void warm(BrainParser parser, File... files) {
+        for (File file : files)
+            warm(parser, parser.readProgram(file));
+    }
+
+    /**
+     * Removes every program from the cache. Statistics are kept.
+     */
+    public synchronized void clear() {
+        programs.clear();
+    }
+
+    /**
+     * Gets the number of programs currently cached.
+     */
+    public synchronized int size() {
+        return programs.size();
+    }
+
+    /**
+     * Gets the maximum number of programs this cache holds.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Statistics on the number of lookups which found their program cached.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Statistics on the number of lookups which had to compile their program.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Statistics on the number of programs evicted to make room for others.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Builds the key of a program from a hash of its source and every parser
+     * setting that changes how it is compiled.
+     *
+     * @param program The source of the program.
+     * @param parser  The parser the program is compiled with.
+     * @return The cache key of the program.
+     */
+    private static String key(String program, BrainParser parser) {
+        StringBuilder key = new StringBuilder();
+        key.append(parser.getLanguageStandard()).append('|')
+                .append(parser.getCellMin()).append('|')
+                .append(parser.getCellMax()).append('|')
+                .append(parser.getWrapping()).append('|')
+                .append(parser.getOptimizing()).append('|')
+                .append(parser.getPrecomputing()).append('|')
+                .append(parser.getPrecomputeSteps()).append('|');
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(program.getBytes(StandardCharsets.UTF_8));
+            for (byte b : hash)
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+        return key.toString();
+    }
+}
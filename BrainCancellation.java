@@ -0,0 +1,29 @@
+/**
+ * BrainCancellation
+ *
+ * @author Daniel Morgan
+ * @description A token used to stop running programs from another thread. Any
+ *              number of {@link BrainRun runs} can share one token, and every
+ *              one of them stops with a {@link BrainLimitException} the next
+ *              time it checks its limits after {@link #cancel()} is called.
+ *              Runs check at the end of loop iterations, so a program waiting
+ *              for input is only stopped once it has read it.
+ */
+public class BrainCancellation {
+    /** If the runs sharing this token should stop */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Asks every run sharing this token to stop.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks if the runs sharing this token have been asked to stop.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * BrainCheckpoint
+ *
+ * @author Daniel Morgan
+ * @description Everything needed to carry on with a program which was stopped
+ *              part way through by its limits, possibly in another JVM: the
+ *              cells of the tape, the pointer, the instruction to carry on
+ *              from, the number of steps already run and how many bytes of
+ *              input had been read and of output written. Compiled programs
+ *              jump straight between matching blocks, so where a run is inside
+ *              its loops is given entirely by the instruction and there is no
+ *              stack of blocks to save. Checkpoints are taken with
+ *              {@link BrainParser#checkpoint()} and carried on with
+ *              {@link BrainParser#resume(BrainProgram, BrainCheckpoint)}.
+ *              <p>
+ *              A checkpoint is written as the bytes "BPCK", a version byte and
+ *              the {@link BrainProgram#fingerprint() fingerprint} of the program,
+ *              followed by every other number as a zigzag encoded variable
+ *              length integer. The tape is stored sparsely as runs of cells
+ *              which are not 0, each given by the number of 0 cells before it,
+ *              its length and its values, so a mostly empty tape takes a few
+ *              bytes however long it is.
+ */
+public class BrainCheckpoint {
+    /** The first four bytes of every checkpoint, "BPCK" */
+    private static final int MAGIC = 0x4250434B;
+    /** The version of the format written */
+    private static final int VERSION = 1;
+
+    /** The fingerprint of the program the checkpoint was taken from */
+    private final long fingerprint;
+    /** The value of every cell of the tape */
+    private final long[] cells;
+    /** The position of the pointer */
+    private final int pointer;
+    /** The instruction the program carries on from */
+    private final int instruction;
+    /** The number of steps run before the checkpoint */
+    private final long steps;
+    /** The number of bytes of input read, or -1 if it is not known */
+    private final long inputOffset;
+    /** The number of bytes of output written */
+    private final long outputOffset;
+
+    /**
+     * Creates a checkpoint of a stopped program.
+     *
+     * @param _fingerprint  The fingerprint of the program.
+     * @param _cells        The value of every cell of the tape, which is not
+     *                      copied.
+     * @param _pointer      The position of the pointer.
+     * @param _instruction  The instruction the program carries on from.
+     * @param _steps        The number of steps run so far.
+     * @param _inputOffset  The number of bytes of input read, or -1 if it is
+     *                      not known.
+     * @param _outputOffset The number of bytes of output written.
+     */
+    public BrainCheckpoint(long _fingerprint, long[] _cells, int _pointer, int _instruction, long _steps,
+            long _inputOffset, long _outputOffset) {
+        fingerprint = _fingerprint;
+        cells = _cells;
+        pointer = _pointer;
+        instruction = _instruction;
+        steps = _steps;
+        inputOffset = _inputOffset;
+        outputOffset = _outputOffset;
+    }
+
+    /**
+     * Checks that a program is the one this checkpoint was taken from.
+     *
+     * @param program The compiled program.
+     * @throws BrainIOException If the program is a different one, or was
+     *                          compiled with other cell settings.
+     */
+    public void check(BrainProgram program) {
+        if (program.fingerprint() != fingerprint)
+            throw new BrainIOException("The checkpoint was taken from a different program, or one compiled "
+                    + "for another language standard");
+    }
+
+    /**
+     * Writes the checkpoint to a stream, leaving the stream open.
+     *
+     * @param stream The stream to write to.
+     * @throws BrainIOException If the stream can not be written to.
+     */
+    public void write(OutputStream stream) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(fingerprint);
+            writeNumber(out, pointer);
+            writeNumber(out, instruction);
+            writeNumber(out, steps);
+            writeNumber(out, inputOffset);
+            writeNumber(out, outputOffset);
+            writeNumber(out, cells.length);
+            writeNumber(out, countRuns());
+            int end = 0;
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] == 0)
+                    continue;
+                int start = i;
+                while (i < cells.length && cells[i] != 0)
+                    i++;
+                writeNumber(out, start - end);
+                writeNumber(out, i - start);
+                for (int j = start; j < i; j++)
+                    writeNumber(out, cells[j]);
+                end = i;
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new BrainIOException("Error writing checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a checkpoint from a stream.
+     *
+     * @param stream The stream to read from.
+     * @return The checkpoint read.
+     * @throws BrainIOException If the stream can not be read or does not hold a
+     *                          checkpoint.
+     */
+    public static BrainCheckpoint read(InputStream stream) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC)
+                throw new BrainIOException("Not a checkpoint");
+            int version = in.readUnsignedByte();
+            if (version != VERSION)
+                throw new BrainIOException("Unsupported checkpoint version " + version);
+            long fingerprint = in.readLong();
+            int pointer = (int) readNumber(in);
+            int instruction = (int) readNumber(in);
+            long steps = readNumber(in);
+            long inputOffset = readNumber(in);
+            long outputOffset = readNumber(in);
+            long[] cells = new long[(int) readNumber(in)];
+            long runs = readNumber(in);
+            int end = 0;
+            for (long run = 0; run < runs; run++) {
+                int start = end + (int) readNumber(in);
+                end = start + (int) readNumber(in);
+                if (start < 0 || end < start || end > cells.length)
+                    throw new BrainIOException("Corrupt checkpoint, a run of cells is outside the tape");
+                for (int i = start; i < end; i++)
+                    cells[i] = readNumber(in);
+            }
+            return new BrainCheckpoint(fingerprint, cells, pointer, instruction, steps, inputOffset, outputOffset);
+        } catch (EOFException e) {
+            throw new BrainIOException("Checkpoint ended unexpectedly", e);
+        } catch (IOException e) {
+            throw new BrainIOException("Error reading checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Saves the checkpoint to a file. It is written next to the file first and
+     * then moved over it, so a crash while saving never loses the checkpoint
+     * saved before.
+     *
+     * @param file The file to save to.
+     * @throws BrainIOException If the file can not be written.
+     */
+    public void save(File file) {
+        File partial = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".part");
+        try {
+            try (OutputStream out = new FileOutputStream(partial)) {
+                write(out);
+            }
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BrainIOException("Error saving checkpoint to " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads a checkpoint saved with {@link #save(File)}.
+     *
+     * @param file The file to load from.
+     * @return The checkpoint.
+     * @throws BrainIOException If the file can not be read or does not hold a
+     *                          checkpoint.
+     */
+    public static BrainCheckpoint load(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        } catch (IOException e) {
+            throw new BrainIOException("Error loading checkpoint from " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Counts the runs of cells which are not 0.
+     */
+    private int countRuns() {
+        int runs = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] != 0 && (i == 0 || cells[i - 1] == 0))
+                runs++;
+        }
+        return runs;
+    }
+
+    /**
+     * Writes a number as a zigzag encoded variable length integer, 7 bits to a
+     * byte, so small numbers of either sign take a single byte.
+     */
+    private static void writeNumber(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) (zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    /**
+     * Reads a number written by {@link #writeNumber(DataOutputStream, long)}.
+     */
+    private static long readNumber(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        throw new BrainIOException("Corrupt checkpoint, a number is too long");
+    }
+
+    /**
+     * Gets the fingerprint of the program the checkpoint was taken from.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Gets the value of every cell of the tape. The array is not copied.
+     */
+    public long[] getCells() {
+        return cells;
+    }
+
+    /**
+     * Gets the position of the pointer.
+     */
+    public int getPointer() {
+        return pointer;
+    }
+
+    /**
+     * Gets the instruction the program carries on from, the first inside the
+     * loop it was stopped in.
+     */
+    public int getInstruction() {
+        return instruction;
+    }
+
+    /**
+     * Gets the number of steps run before the checkpoint.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Gets the number of bytes of input read before the checkpoint, which are
+     * skipped when it is resumed, or -1 if input was read through a scanner.
+     */
+    public long getInputOffset() {
+        return inputOffset;
+    }
+
+    /**
+     * Gets the number of bytes of output written before the checkpoint. Output
+     * written after it is written again when the checkpoint is resumed.
+     */
+    public long getOutputOffset() {
+        return outputOffset;
+    }
+}
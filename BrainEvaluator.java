@@ -0,0 +1,420 @@
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * BrainEvaluator
+ *
+ * @author Daniel Morgan
+ * @description Runs the start of a compiled {@link BrainProgram} ahead of time,
+ *              up to the first instruction whose result cannot be known before
+ *              the program is run, and records the result as a
+ *              {@link BrainPrefix}. Runs of the program then start from where
+ *              the prefix ends, so work which is the same every run (setting up
+ *              tables, printing a banner) is only ever done once.
+ *              <p>
+ *              The program is run on a tape of unknown cells. A cell read before
+ *              it is written is taken to be 0, which is checked before the
+ *              prefix is applied to a run. Evaluation stops at the first input,
+ *              at a goto after cells were written relative to where the pointer
+ *              started, at an error, at a value too large to wrap into the cell
+ *              range, or once the step budget is used up. It then
+ *              backs up to the last instruction outside of every loop, as the
+ *              rest of the program can only carry on from there.
+ */
+public class BrainEvaluator {
+    /** The most cells the evaluated part of a program may span */
+    private static final int MAX_SPAN = 1 << 22;
+    /** Thrown to stop evaluating, without a stack trace as it is never shown */
+    private static final RuntimeException STOP = new RuntimeException(null, null, false, false) {
+        private static final long serialVersionUID = 1L;
+    };
+
+    /** The most instructions (and scan moves) run while evaluating */
+    private final long budget;
+
+    /** The minimum cell value of the program being evaluated */
+    private long cellMin;
+    /** The maximum cell value of the program being evaluated */
+    private long cellMax;
+    /** Cells known relative to where the pointer started */
+    private Cells relativeCells;
+    /** Cells known after the pointer was moved with a goto */
+    private Cells absoluteCells;
+    /** The cells the pointer is on now, relative until the first goto */
+    private Cells cells;
+    /** The position of the pointer in the current cells */
+    private long pointer;
+    /** The number of steps run so far */
+    private long steps;
+    /** Output printed so far */
+    private ByteArrayOutputStream printed;
+    /** Sink output is printed to, through the run wrapping values */
+    private BrainOutput output;
+    /** Counts each first change of a cell since the last instruction outside every loop */
+    private int epoch = 1;
+    /** Cells changed since the last instruction outside every loop, as cells, position, value and state */
+    private Cells[] undoCells = new Cells[64];
+    private int[] undoPositions = new int[64];
+    private long[] undoValues = new long[64];
+    private byte[] undoStates = new byte[64];
+    private int undoLength = 0;
+
+    // state at the last instruction outside every loop, which evaluation backs up to
+    private int savedPc;
+    private long savedSteps;
+    private long savedPointer;
+    private Cells savedCells;
+    private long savedOutput;
+
+    /**
+     * Creates an evaluator which runs programs for at most the passed number of
+     * steps.
+     *
+     * @param _budget The most steps to run each program for.
+     */
+    public BrainEvaluator(long _budget) {
+        budget = _budget;
+    }
+
+    /**
+     * Runs the start of a program ahead of time.
+     *
+     * @param program The program to evaluate.
+     * @return The same program with a {@link BrainPrefix}, or the program itself
+     *         if none of it could be run ahead of time.
+     */
+    public BrainProgram evaluate(BrainProgram program) {
+        final int[] code = program.code;
+        final long[] operands = program.operands;
+        final int[] offsets = program.offsets;
+        boolean[] outside = outsideLoops(code);
+        cellMin = program.getCellMin();
+        cellMax = program.getCellMax();
+        printed = new ByteArrayOutputStream();
+        output = new BrainOutput(printed);
+        // the run is only used to wrap and print values exactly as a real run would
+        BrainRun run = new BrainRun(program, null, null, output);
+        relativeCells = new Cells();
+        absoluteCells = new Cells();
+        cells = relativeCells;
+        pointer = 0;
+        steps = 0;
+        long work = 0;
+        long cell;
+        int pc = 0;
+        try {
+            while (true) {
+                if (pc == code.length || outside[pc])
+                    save(pc);
+                if (pc == code.length || ++work > budget)
+                    break;
+                steps++;
+                switch (code[pc]) {
+                    case BrainProgram.ADD:
+                        cell = cell(pointer, offsets[pc]);
+                        write(cell, run.wrap(read(cell) + operands[pc]));
+                        break;
+                    case BrainProgram.SET:
+                        write(cell(pointer, offsets[pc]), run.wrap(operands[pc]));
+                        break;
+                    case BrainProgram.MOVE:
+                        pointer += (int) operands[pc];
+                        cells.touch(pointer);
+                        break;
+                    case BrainProgram.GOTO:
+                        // cells written so far could be anywhere relative to the goto
+                        if (cells == relativeCells && relativeCells.written)
+                            throw STOP;
+                        cells = absoluteCells;
+                        pointer = (int) operands[pc];
+                        cells.touch(pointer);
+                        break;
+                    case BrainProgram.SBLOCK:
+                        if (read(pointer) <= 0)
+                            pc = (int) operands[pc];
+                        break;
+                    case BrainProgram.EBLOCK:
+                        if (read(pointer) > 0)
+                            pc = (int) operands[pc];
+                        break;
+                    case BrainProgram.IN:
+                        throw STOP;
+                    case BrainProgram.OUT:
+                        run.writeOutput(read(cell(pointer, offsets[pc])), operands[pc]);
+                        break;
+                    case BrainProgram.CLEAR:
+                        cell = cell(pointer, offsets[pc]);
+                        if (read(cell) > 0)
+                            write(cell, 0);
+                        break;
+                    case BrainProgram.SCAN:
+                        while (read(pointer) > 0) {
+                            if (++work > budget)
+                                throw STOP;
+                            pointer += (int) operands[pc];
+                            cells.touch(pointer);
+                        }
+                        break;
+                    case BrainProgram.ZERO: {
+                        int count = (int) operands[pc];
+                        int step = count > 0 ? 1 : -1;
+                        for (int i = 0; i != count; i += step) {
+                            cell = cell(pointer, offsets[pc] + i);
+                            if (read(cell) > 0)
+                                write(cell, 0);
+                        }
+                        break;
+                    }
+                    case BrainProgram.MUL: {
+                        long times = read(pointer);
+                        if (times > 0) {
+                            long target = pointer + offsets[pc];
+                            cells.touch(target);
+                            write(target, run.wrapRepeated(read(target), operands[pc], times));
+                        }
+                        break;
+                    }
+                }
+                pc++;
+            }
+        } catch (RuntimeException e) {
+            // stopped, and any error is raised again when the program is run
+        }
+        restore();
+        if (savedPc == 0)
+            return program;
+        return program.withPrefix(prefix());
+    }
+
+    /**
+     * Finds the instructions outside of every loop, where evaluation can stop.
+     * The ending block of a loop counts as inside it.
+     */
+    private static boolean[] outsideLoops(int[] code) {
+        boolean[] outside = new boolean[code.length];
+        int depth = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            if (code[pc] == BrainProgram.EBLOCK)
+                depth--;
+            outside[pc] = depth == 0 && code[pc] != BrainProgram.EBLOCK;
+            if (code[pc] == BrainProgram.SBLOCK)
+                depth++;
+        }
+        return outside;
+    }
+
+    /**
+     * Finds the cell an instruction works on at an offset from the pointer,
+     * which counts as reached by the pointer.
+     */
+    private long cell(long position, int offset) {
+        long target = position + offset;
+        cells.touch(target);
+        return target;
+    }
+
+    /**
+     * Reads a cell of the current cells, taking it to be 0 if it has not been
+     * written.
+     */
+    private long read(long position) {
+        int index = cells.index(position);
+        if (cells.states[index] != Cells.UNKNOWN)
+            return cells.values[index];
+        remember(cells, position, index);
+        cells.states[index] = Cells.ASSUMED;
+        cells.values[index] = 0;
+        cells.addZero((int) position);
+        return 0;
+    }
+
+    /**
+     * Writes a cell of the current cells. A value outside of the cell range is
+     * stored differently by different kinds of tape, so it stops evaluation.
+     */
+    private void write(long position, long value) {
+        if (value < cellMin || value > cellMax)
+            throw STOP;
+        int index = cells.index(position);
+        remember(cells, position, index);
+        if (cells.states[index] == Cells.UNKNOWN)
+            cells.states[index] = Cells.WRITTEN;
+        cells.values[index] = value;
+        cells.written = true;
+    }
+
+    /**
+     * Remembers what a cell was before its first change since the last
+     * instruction outside every loop, so the change can be undone.
+     */
+    private void remember(Cells changed, long position, int index) {
+        if (changed.epochs[index] == epoch)
+            return;
+        changed.epochs[index] = epoch;
+        if (undoLength == undoPositions.length) {
+            int size = undoLength * 2;
+            undoCells = Arrays.copyOf(undoCells, size);
+            undoPositions = Arrays.copyOf(undoPositions, size);
+            undoValues = Arrays.copyOf(undoValues, size);
+            undoStates = Arrays.copyOf(undoStates, size);
+        }
+        undoCells[undoLength] = changed;
+        undoPositions[undoLength] = (int) position;
+        undoValues[undoLength] = changed.values[index];
+        undoStates[undoLength] = changed.states[index];
+        undoLength++;
+    }
+
+    /**
+     * Saves the state at an instruction outside of every loop, which evaluation
+     * backs up to if it stops before the next one.
+     */
+    private void save(int pc) {
+        savedPc = pc;
+        savedSteps = steps;
+        savedPointer = pointer;
+        savedCells = cells;
+        savedOutput = output.getOffset();
+        relativeCells.save();
+        absoluteCells.save();
+        undoLength = 0;
+        epoch++;
+    }
+
+    /**
+     * Backs up to the last saved state.
+     */
+    private void restore() {
+        for (int i = undoLength - 1; i >= 0; i--) {
+            int index = undoCells[i].index(undoPositions[i]);
+            undoCells[i].values[index] = undoValues[i];
+            undoCells[i].states[index] = undoStates[i];
+        }
+        undoLength = 0;
+        steps = savedSteps;
+        pointer = savedPointer;
+        cells = savedCells;
+        relativeCells.restore();
+        absoluteCells.restore();
+    }
+
+    /**
+     * Builds the prefix from the saved state.
+     */
+    private BrainPrefix prefix() {
+        output.flush();
+        byte[] bytes = Arrays.copyOf(printed.toByteArray(), (int) savedOutput);
+        // cells written relative to the start are only kept when there was no goto
+        Cells kept = cells;
+        int count = 0;
+        for (int i = 0; i < kept.length(); i++)
+            if (kept.states[i] == Cells.WRITTEN || kept.values[i] != 0)
+                count++;
+        int[] positions = new int[count];
+        long[] values = new long[count];
+        count = 0;
+        for (int i = 0; i < kept.length(); i++) {
+            if (kept.states[i] == Cells.WRITTEN || kept.values[i] != 0) {
+                positions[count] = kept.base + i;
+                values[count++] = kept.values[i];
+            }
+        }
+        return new BrainPrefix(savedPc, steps, cells == relativeCells, positions, values, (int) pointer,
+                relativeCells.zeros(), absoluteCells.zeros(), relativeCells.min, relativeCells.max,
+                absoluteCells.min, absoluteCells.max, bytes);
+    }
+
+    /** Cells in one frame of reference, relative to where the pointer started or absolute */
+    private static final class Cells {
+        /** A cell which has not been read or written */
+        static final byte UNKNOWN = 0;
+        /** A cell read before it was written, taken to be 0 */
+        static final byte ASSUMED = 1;
+        /** A cell written before it was read */
+        static final byte WRITTEN = 2;
+
+        /** The position of the first cell of the arrays */
+        int base;
+        long[] values = new long[0];
+        byte[] states = new byte[0];
+        /** The epoch at which each cell was last remembered for undoing */
+        int[] epochs = new int[0];
+        /** The lowest and highest positions reached, lowest above highest if none */
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        /** If any cell has been written */
+        boolean written;
+        /** Cells read before being written, in the order they were read */
+        int[] zeros = new int[16];
+        int zeroCount;
+        // the saved state
+        int savedMin = min, savedMax = max, savedZeroCount;
+        boolean savedWritten;
+
+        int length() {
+            return values.length;
+        }
+
+        /**
+         * Records that the pointer reached a position.
+         */
+        void touch(long position) {
+            if (position < Integer.MIN_VALUE || position > Integer.MAX_VALUE)
+                throw STOP;
+            min = Math.min(min, (int) position);
+            max = Math.max(max, (int) position);
+        }
+
+        /**
+         * Gets the index of a cell in the arrays, growing them to hold it.
+         */
+        int index(long position) {
+            touch(position);
+            if (position < base || position >= base + (long) values.length) {
+                long low = Math.min(position, values.length == 0 ? position : base);
+                long high = Math.max(position + 1, base + (long) values.length);
+                long size = Math.max(high - low, Math.min(MAX_SPAN, Math.max(64, values.length * 2L)));
+                if (high - low > MAX_SPAN)
+                    throw STOP;
+                // grow towards the side the position is on
+                long newBase = position < base || values.length == 0 ? high - size : low;
+                int shift = (int) (base - newBase);
+                long[] newValues = new long[(int) size];
+                byte[] newStates = new byte[(int) size];
+                int[] newEpochs = new int[(int) size];
+                System.arraycopy(values, 0, newValues, shift, values.length);
+                System.arraycopy(states, 0, newStates, shift, states.length);
+                System.arraycopy(epochs, 0, newEpochs, shift, epochs.length);
+                values = newValues;
+                states = newStates;
+                epochs = newEpochs;
+                base = (int) newBase;
+            }
+            return (int) (position - base);
+        }
+
+        void addZero(int position) {
+            if (zeroCount == zeros.length)
+                zeros = Arrays.copyOf(zeros, zeroCount * 2);
+            zeros[zeroCount++] = position;
+        }
+
+        int[] zeros() {
+            return Arrays.copyOf(zeros, zeroCount);
+        }
+
+        void save() {
+            savedMin = min;
+            savedMax = max;
+            savedZeroCount = zeroCount;
+            savedWritten = written;
+        }
+
+        void restore() {
+            min = savedMin;
+            max = savedMax;
+            zeroCount = savedZeroCount;
+            written = savedWritten;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * BrainException
+ *
+ * @author Daniel Morgan
+ * @description The base of every error raised while compiling or running a bp
+ *              program. Errors are thrown to the caller rather than ending the
+ *              JVM, so a host can run any number of programs and decide itself
+ *              what a failed program means. The subclasses say what went wrong:
+ *              <ul>
+ *              <li>{@link BrainSyntaxException} : the program is malformed</li>
+ *              <li>{@link BrainPointerException} : the pointer left the tape</li>
+ *              <li>{@link BrainOverflowException} : a cell left its range</li>
+ *              <li>{@link BrainIOException} : input, output or a file failed</li>
+ *              <li>{@link BrainLimitException} : the run was stopped early</li>
+ *              </ul>
+ */
+public class BrainException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an error with a message.
+     *
+     * @param message What went wrong.
+     */
+    public BrainException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates an error with a message caused by another error.
+     *
+     * @param message What went wrong.
+     * @param cause   The error which caused this one.
+     */
+    public BrainException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * BrainIOException
+ *
+ * @author Daniel Morgan
+ * @description Raised when a program file cannot be read, when input runs out
+ *              or is not what the program asked for, or when output cannot be
+ *              written.
+ */
+public class BrainIOException extends BrainException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an I/O error.
+     *
+     * @param message What went wrong.
+     */
+    public BrainIOException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates an I/O error caused by another error.
+     *
+     * @param message What went wrong.
+     * @param cause   The error which caused this one.
+     */
+    public BrainIOException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
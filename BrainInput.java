@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+/**
+ * BrainInput
+ *
+ * @author Daniel Morgan
+ * @description The source a {@link BrainParser} reads input from. Bytes are
+ *              read from a stream or channel into a reusable buffer and parsed
+ *              in place, so reading a value never allocates. Input is split
+ *              into tokens by whitespace like a {@link java.util.Scanner}: a
+ *              character is the first character (decoded as UTF-8) of the next
+ *              token and a number is the whole next token read as a decimal
+ *              long. Numbers are stricter than those of a scanner, see
+ *              {@link #readLong()}. Running out of input, a token which is not
+ *              a number and errors reading from the stream or channel are all
+ *              thrown as a {@link BrainIOException}.
+ */
+public class BrainInput {
+    /** The default size of the buffer in bytes */
+    private static final int DEFAULT_SIZE = 8192;
+
+    /** The stream bytes are read from, or null if reading from a channel */
+    private final InputStream stream;
+    /** The channel bytes are read from, or null if reading from a stream */
+    private final ReadableByteChannel channel;
+    /** The scanner values are read through instead of the buffer, if any */
+    private final Scanner scanner;
+    /** Bytes read but not yet parsed */
+    private final byte[] buffer;
+    /** The buffer viewed as a ByteBuffer for reading from the channel */
+    private final ByteBuffer view;
+    /** The index of the next byte to parse */
+    private int position = 0;
+    /** The number of bytes in the buffer */
+    private int length = 0;
+    /** The number of bytes read before the start of the buffer */
+    private long offset = 0;
+
+    /**
+     * Creates a source reading from a stream, such as System.in.
+     *
+     * @param _stream The stream to read from.
+     */
+    public BrainInput(InputStream _stream) {
+        this(_stream, null, DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a source reading from a channel, such as a FileChannel.
+     *
+     * @param _channel The channel to read from.
+     */
+    public BrainInput(ReadableByteChannel _channel) {
+        this(null, _channel, DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a source reading every value through a scanner, for parsers which
+     * were {@link BrainParser#setScanner(Scanner) given one}.
+     *
+     * @param _scanner The scanner to read from.
+     */
+    public BrainInput(Scanner _scanner) {
+        stream = null;
+        channel = null;
+        scanner = _scanner;
+        buffer = null;
+        view = null;
+    }
+
+    /**
+     * Creates a source reading from a stream or a channel through a buffer of
+     * the passed size.
+     */
+    private BrainInput(InputStream _stream, ReadableByteChannel _channel, int size) {
+        stream = _stream;
+        channel = _channel;
+        scanner = null;
+        buffer = new byte[size];
+        view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Reads the first character of the next token, skipping the rest of it.
+     *
+     * @return The character read.
+     */
+    public char readChar() {
+        if (scanner != null) {
+            try {
+                return scanner.next().charAt(0);
+            } catch (NoSuchElementException e) {
+                throw new BrainIOException("There is no input left to read", e);
+            }
+        }
+        int b = nextToken();
+        position++;
+        char c;
+        if (b < 0x80) {
+            c = (char) b;
+        } else if (b >= 0xC0 && b < 0xE0) {
+            c = (char) (((b & 0x1F) << 6) | continuation());
+        } else if (b >= 0xE0 && b < 0xF0) {
+            c = (char) (((b & 0x0F) << 12) | (continuation() << 6) | continuation());
+        } else if (b >= 0xF0 && b < 0xF8) {
+            // only the high surrogate of a supplementary character is the first char
+            int code = ((b & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+            c = Character.highSurrogate(code);
+        } else {
+            c = '\uFFFD';
+        }
+        skipToken();
+        return c;
+    }
+
+    /**
+     * Reads the next token as a decimal number, with an optional sign. Unlike
+     * {@link java.util.Scanner#nextLong()}, only the ASCII digits 0 to 9 are
+     * read, grouping separators such as the comma in "1,000" are not accepted,
+     * and a token which is not a number is still consumed, so the next read
+     * starts after it. Values read through a scanner keep its behaviour.
+     *
+     * @return The number read.
+     */
+    public long readLong() {
+        if (scanner != null) {
+            try {
+                return scanner.nextLong();
+            } catch (NoSuchElementException e) {
+                // also thrown for input which is not a number
+                throw new BrainIOException("Expected a number as input", e);
+            }
+        }
+        nextToken();
+        boolean negative = false;
+        int b = buffer[position];
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            position++;
+        }
+        // accumulate negatively so Long.MIN_VALUE can be read
+        long value = 0;
+        int digits = 0;
+        while ((b = peek()) >= '0' && b <= '9') {
+            int digit = b - '0';
+            if (value < (Long.MIN_VALUE + digit) / 10)
+                throw badNumber("Input number out of range");
+            value = value * 10 - digit;
+            digits++;
+            position++;
+        }
+        if (digits == 0 || (b >= 0 && !isWhitespace(b)))
+            throw badNumber("Expected a number as input");
+        if (!negative) {
+            if (value == Long.MIN_VALUE)
+                throw badNumber("Input number out of range");
+            value = -value;
+        }
+        return value;
+    }
+
+    /**
+     * Skips the rest of a token which could not be read as a number.
+     *
+     * @param message Why the token could not be read.
+     * @return The exception to throw.
+     */
+    private BrainIOException badNumber(String message) {
+        skipToken();
+        return new BrainIOException(message);
+    }
+
+    /**
+     * Gets the number of bytes read from the stream or channel so far, not
+     * counting bytes buffered but not yet parsed.
+     *
+     * @return The offset of the next byte to parse, or -1 if reading through a
+     *         scanner.
+     */
+    public long getOffset() {
+        return scanner != null ? -1 : offset + position;
+    }
+
+    /**
+     * Skips the passed number of bytes without parsing them, such as the input a
+     * program read before it was stopped and {@link BrainCheckpoint saved}.
+     *
+     * @param bytes The number of bytes to skip.
+     * @throws BrainIOException If the input ends first or is read through a
+     *                          scanner.
+     */
+    public void skip(long bytes) {
+        if (scanner != null && bytes > 0)
+            throw new BrainIOException("Input read through a scanner can not be skipped");
+        while (bytes > 0) {
+            if (position == length && !fill())
+                throw new BrainIOException("The input ended " + bytes + " bytes before the end of what was skipped");
+            int skipped = (int) Math.min(bytes, length - position);
+            position += skipped;
+            bytes -= skipped;
+        }
+    }
+
+    /**
+     * Skips whitespace up to the start of the next token.
+     *
+     * @return The first byte of the token, which is left unread.
+     */
+    private int nextToken() {
+        int b;
+        while ((b = peek()) >= 0 && isWhitespace(b))
+            position++;
+        if (b < 0)
+            throw new BrainIOException("There is no input left to read");
+        return b;
+    }
+
+    /**
+     * Skips the remainder of the current token.
+     */
+    private void skipToken() {
+        int b;
+        while ((b = peek()) >= 0 && !isWhitespace(b))
+            position++;
+    }
+
+    /**
+     * Reads the low 6 bits of a UTF-8 continuation byte, or 0 if there is none.
+     */
+    private int continuation() {
+        int b = peek();
+        if (b < 0 || (b & 0xC0) != 0x80)
+            return 0;
+        position++;
+        return b & 0x3F;
+    }
+
+    /**
+     * Gets the next byte without reading it, refilling the buffer if needed.
+     *
+     * @return The next byte from 0 to 255, or -1 at the end of input.
+     */
+    private int peek() {
+        if (position == length && !fill())
+            return -1;
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Replaces the buffer with the next bytes of input.
+     *
+     * @return false if there is no more input.
+     */
+    private boolean fill() {
+        try {
+            int read;
+            if (stream != null) {
+                read = stream.read(buffer, 0, buffer.length);
+            } else {
+                view.clear();
+                do {
+                    read = channel.read(view);
+                } while (read == 0);
+            }
+            offset += length;
+            position = 0;
+            length = Math.max(read, 0);
+            return read > 0;
+        } catch (IOException e) {
+            throw new BrainIOException("Error reading input: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks if a byte is whitespace separating tokens.
+     */
+    private static boolean isWhitespace(int b) {
+        return b < 0x80 && Character.isWhitespace(b);
+    }
+}
@@ -0,0 +1,783 @@
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * BrainJit
+ *
+ * @author Daniel Morgan
+ * @description Translates a {@link BrainProgram} into JVM bytecode and loads
+ *              it as a hidden class, so the program itself is compiled by the
+ *              JVM instead of being interpreted one instruction at a time. The
+ *              generated class has a single method equivalent to
+ *              <code>static int run(Tape tape, int pointer, BrainRun run)</code>
+ *              which returns the final position of the pointer. A class is
+ *              generated for each kind of {@link Tape} a program runs on, so
+ *              the cells can be read and written directly on the primitive
+ *              array backing the tape. Anything more involved than a cell
+ *              access (wrapping, input, output, bounds errors) is delegated to
+ *              the same {@link BrainRun} methods the interpreter uses, so
+ *              both behave exactly alike.
+ *              <p>
+ *              Steps are counted in a local by adding the length of every
+ *              stretch of instructions between blocks as it is entered, and the
+ *              count is compared against {@link BrainRun#nextCheck} at the end
+ *              of every loop iteration, so limits are checked just as often as
+ *              when interpreting. The count starts from the steps the run was
+ *              already given, and a run {@link BrainRun#setStartInstruction(int)
+ *              starting} inside a loop jumps straight to the body of that loop,
+ *              so the same generated method carries on runs from a
+ *              {@link BrainCheckpoint}. Runs skipping the {@link BrainPrefix} of
+ *              a program likewise jump straight to where the prefix ends.
+ *              <p>
+ *              Instructions working on a cell at an offset from the pointer
+ *              check the cell is on the tape only if it is further from the
+ *              pointer than every cell already checked since the pointer last
+ *              changed, so a run of them costs one check per direction. An
+ *              index off the tape which gets past the checks anyway, such as
+ *              one found by a {@link Tape} method, is caught by the generated
+ *              method and thrown as a {@link BrainPointerException} at the
+ *              pointer.
+ */
+public class BrainJit {
+    /** Largest method the generator will produce, as branch offsets are limited to 16 bits */
+    private static final int MAX_CODE_LENGTH = 32767;
+    /** The local of the generated run method holding the number of steps run, a long */
+    private static final int STEPS = 4;
+    /** The type of the generated run method */
+    private static final MethodType RUN_TYPE = MethodType.methodType(int.class, Tape.class, int.class,
+            BrainRun.class);
+
+    // JVM opcodes used by the generator
+    private static final int LCONST_0 = 0x09;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int LLOAD = 0x16;
+    private static final int ILOAD_1 = 0x1b;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int IALOAD = 0x2e;
+    private static final int LALOAD = 0x2f;
+    private static final int BALOAD = 0x33;
+    private static final int CALOAD = 0x34;
+    private static final int SALOAD = 0x35;
+    private static final int ASTORE_3 = 0x4e;
+    private static final int IASTORE = 0x4f;
+    private static final int ISTORE_1 = 0x3c;
+    private static final int LSTORE = 0x37;
+    private static final int LASTORE = 0x50;
+    private static final int BASTORE = 0x54;
+    private static final int CASTORE = 0x55;
+    private static final int SASTORE = 0x56;
+    private static final int POP = 0x57;
+    private static final int POP2 = 0x58;
+    private static final int IADD = 0x60;
+    private static final int LADD = 0x61;
+    private static final int LAND = 0x7f;
+    private static final int I2L = 0x85;
+    private static final int L2I = 0x88;
+    private static final int IINC = 0x84;
+    private static final int LCMP = 0x94;
+    private static final int IFEQ = 0x99;
+    private static final int IFLT = 0x9b;
+    private static final int IFGT = 0x9d;
+    private static final int IFLE = 0x9e;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int ARRAYLENGTH = 0xbe;
+    private static final int ATHROW = 0xbf;
+    private static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+
+    /** The constant pool of the class being generated */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    /** Index of every constant already in the pool */
+    private final HashMap<String, Integer> constants = new HashMap<String, Integer>();
+    /** The next free constant pool index */
+    private int poolSize = 1;
+    /** The bytecode of the run method */
+    private byte[] code = new byte[1024];
+    /** The number of bytes of bytecode emitted so far */
+    private int length;
+    /** The descriptor of the array backing the tape, or null to go through the {@link Tape} methods */
+    private String array;
+    /** The opcode loading a cell from the backing array */
+    private int arrayLoad;
+    /** The opcode storing a cell into the backing array */
+    private int arrayStore;
+    /** The name of the class of the tape */
+    private final String tapeClass;
+    /** The mask applied to cells which are stored unsigned, or 0 if they are signed */
+    private final long unsigned;
+
+    /**
+     * Compiles a program into a method handle for its generated run method. The
+     * result is kept on the program so it is only generated once for each kind
+     * of tape.
+     *
+     * @param program The program to compile.
+     * @param run     The run of the program, used to wrap constant values.
+     * @param tape    The tape the program will run on.
+     * @return A handle to the run method, or null if the program is too large to
+     *         be generated as a single method.
+     */
+    public static MethodHandle compile(BrainProgram program, BrainRun run, Tape tape) {
+        MethodHandle jitted = program.jitted.get(tape.getClass());
+        if (jitted == null) {
+            byte[] bytes = new BrainJit(tape).generate(program, run);
+            if (bytes == null)
+                return null;
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+                jitted = lookup.findStatic(lookup.lookupClass(), "run", RUN_TYPE);
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+            program.jitted.put(tape.getClass(), jitted);
+        }
+        return jitted;
+    }
+
+    /**
+     * Creates a generator for programs running on the passed kind of tape.
+     *
+     * @param tape The tape the generated program will run on.
+     */
+    private BrainJit(Tape tape) {
+        if (tape instanceof Tape.UnsignedBytes || tape instanceof Tape.Bytes) {
+            array = "[B";
+            arrayLoad = BALOAD;
+            arrayStore = BASTORE;
+        } else if (tape instanceof Tape.Chars) {
+            array = "[C";
+            arrayLoad = CALOAD;
+            arrayStore = CASTORE;
+        } else if (tape instanceof Tape.Shorts) {
+            array = "[S";
+            arrayLoad = SALOAD;
+            arrayStore = SASTORE;
+        } else if (tape instanceof Tape.UnsignedInts || tape instanceof Tape.Ints) {
+            array = "[I";
+            arrayLoad = IALOAD;
+            arrayStore = IASTORE;
+        } else if (tape instanceof Tape.Longs) {
+            array = "[J";
+            arrayLoad = LALOAD;
+            arrayStore = LASTORE;
+        }
+        tapeClass = tape.getClass().getName();
+        unsigned = tape instanceof Tape.UnsignedBytes ? 0xFFL : tape instanceof Tape.UnsignedInts ? 0xFFFFFFFFL : 0;
+    }
+
+    /**
+     * Generates the class file for a program.
+     *
+     * @return The bytes of the class file, or null if the program is too large.
+     */
+    private byte[] generate(BrainProgram program, BrainRun run) {
+        int[] ops = program.code;
+        long[] args = program.operands;
+        int[] offsets = program.offsets;
+        // values stored in cells are wrapped or checked against the range unless every long fits
+        boolean wraps = !(program.getCellMin() == Long.MIN_VALUE && program.getCellMax() == Long.MAX_VALUE);
+        int wrap = method("wrap", "(J)J");
+        prologue();
+
+        // bytecode position of every instruction, and the branches still waiting for them
+        int[] starts = new int[ops.length + 1];
+        int[] branchAt = new int[ops.length * 4 + 2];
+        int[] branchTo = new int[ops.length * 4 + 2];
+        int branches = 0;
+
+        // if (run.startInstruction != 0) jump to the body of the loop it names
+        op(ALOAD_2);
+        op(GETFIELD);
+        op16(field("BrainRun", "startInstruction", "I"));
+        branchAt[branches] = length;
+        branchTo[branches++] = 0;
+        op(IFEQ);
+        op16(0);
+        // a run skipping the prefix of the program carries on from where it ends
+        int resume = program.prefix != null ? program.prefix.end : 0;
+        if (resume != 0) {
+            op(ALOAD_2);
+            op(GETFIELD);
+            op16(field("BrainRun", "startInstruction", "I"));
+            pushInt(resume);
+            branchAt[branches] = length;
+            branchTo[branches++] = resume;
+            op(IF_ICMPEQ);
+            op16(0);
+        }
+        for (int pc = 0; pc < ops.length; pc++) {
+            if (ops[pc] != BrainProgram.SBLOCK)
+                continue;
+            op(ALOAD_2);
+            op(GETFIELD);
+            op16(field("BrainRun", "startInstruction", "I"));
+            pushInt(pc + 1);
+            branchAt[branches] = length;
+            branchTo[branches++] = pc + 1;
+            op(IF_ICMPEQ);
+            op16(0);
+        }
+
+        // the offsets from p already checked to be on the tape since p last changed or was jumped to
+        int checkedLow = 0;
+        int checkedHigh = 0;
+        for (int pc = 0; pc < ops.length; pc++) {
+            starts[pc] = length;
+            if (length > MAX_CODE_LENGTH)
+                return null;
+            boolean leader = pc == 0 || pc == resume || ops[pc - 1] == BrainProgram.SBLOCK
+                    || ops[pc - 1] == BrainProgram.EBLOCK;
+            if (leader) {
+                // every jump lands here, so count the steps up to and including the next block
+                int end = pc;
+                while (end < ops.length - 1 && ops[end] != BrainProgram.SBLOCK && ops[end] != BrainProgram.EBLOCK
+                        && end + 1 != resume)
+                    end++;
+                op(LLOAD);
+                op(STEPS);
+                pushLong(end - pc + 1);
+                op(LADD);
+                op(LSTORE);
+                op(STEPS);
+            }
+            if (pc == 0 || pc == resume || ops[pc - 1] == BrainProgram.GOTO) {
+                // the pointer may be anywhere, even off the tape, so nothing is checked yet
+                checkedLow = 1;
+                checkedHigh = 0;
+            } else if (leader || ops[pc - 1] == BrainProgram.MOVE || ops[pc - 1] == BrainProgram.SCAN) {
+                // the pointer was checked when it moved, or by the block jumping here
+                checkedLow = 0;
+                checkedHigh = 0;
+            }
+            // moves and gotos check the pointer themselves, the target of a multiply is checked by the run, and
+            // only if the multiply happens, and a scan holds the size of its steps
+            boolean usesCell = ops[pc] != BrainProgram.MOVE && ops[pc] != BrainProgram.GOTO;
+            int offset = usesCell && ops[pc] != BrainProgram.MUL && ops[pc] != BrainProgram.SCAN ? offsets[pc] : 0;
+            if (usesCell && (offset < checkedLow || offset > checkedHigh)) {
+                // every cell between two cells on the tape is on the tape too, so only new extremes are checked
+                checkCell(offset);
+                if (checkedLow > checkedHigh) {
+                    checkedLow = offset;
+                    checkedHigh = offset;
+                } else {
+                    checkedLow = Math.min(checkedLow, offset);
+                    checkedHigh = Math.max(checkedHigh, offset);
+                }
+            }
+            switch (ops[pc]) {
+                case BrainProgram.ADD:
+                    // tape[p + k] = wrap(tape[p + k] + n)
+                    beginStore(offset);
+                    if (wraps)
+                        op(ALOAD_2);
+                    loadCell(offset);
+                    pushLong(args[pc]);
+                    op(LADD);
+                    if (wraps)
+                        invoke(wrap);
+                    storeCell();
+                    break;
+                case BrainProgram.SET:
+                    beginStore(offset);
+                    if (wraps && !program.getWrapping()
+                            && (args[pc] < program.getCellMin() || args[pc] > program.getCellMax())) {
+                        // the value does not fit, so the overflow is raised when the instruction runs
+                        op(ALOAD_2);
+                        pushLong(args[pc]);
+                        invoke(wrap);
+                    } else {
+                        pushLong(run.wrap(args[pc]));
+                    }
+                    storeCell();
+                    break;
+                case BrainProgram.MOVE:
+                    movePointer((int) args[pc], offsets[pc]);
+                    break;
+                case BrainProgram.GOTO:
+                    // p = run.gotoPointer(n, tape.length())
+                    op(ALOAD_2);
+                    pushInt((int) args[pc]);
+                    tapeLength();
+                    invoke(method("gotoPointer", "(II)I"));
+                    op(ISTORE_1);
+                    break;
+                case BrainProgram.SBLOCK:
+                    loadCell(0);
+                    op(LCONST_0);
+                    op(LCMP);
+                    branchAt[branches] = length;
+                    branchTo[branches++] = (int) args[pc] + 1;
+                    op(IFLE);
+                    op16(0);
+                    break;
+                case BrainProgram.EBLOCK: {
+                    // if (tape[p] > 0) { if (steps >= run.nextCheck) run.checkLimits(steps, start, p); loop again }
+                    int start = (int) args[pc];
+                    loadCell(0);
+                    op(LCONST_0);
+                    op(LCMP);
+                    branchAt[branches] = length;
+                    branchTo[branches++] = pc + 1;
+                    op(IFLE);
+                    op16(0);
+                    op(LLOAD);
+                    op(STEPS);
+                    op(ALOAD_2);
+                    op(GETFIELD);
+                    op16(field("BrainRun", "nextCheck", "J"));
+                    op(LCMP);
+                    branchAt[branches] = length;
+                    branchTo[branches++] = start + 1;
+                    op(IFLT);
+                    op16(0);
+                    op(ALOAD_2);
+                    op(LLOAD);
+                    op(STEPS);
+                    pushInt(start);
+                    op(ILOAD_1);
+                    invoke(method("checkLimits", "(JII)J"));
+                    op(POP2);
+                    branchAt[branches] = length;
+                    branchTo[branches++] = start + 1;
+                    op(GOTO);
+                    op16(0);
+                    break;
+                }
+                case BrainProgram.IN:
+                    beginStore(offset);
+                    if (wraps)
+                        op(ALOAD_2);
+                    op(ALOAD_2);
+                    pushLong(args[pc]);
+                    invoke(method("readInput", "(J)J"));
+                    if (wraps)
+                        invoke(wrap);
+                    storeCell();
+                    break;
+                case BrainProgram.OUT:
+                    op(ALOAD_2);
+                    loadCell(offset);
+                    pushLong(args[pc]);
+                    invoke(method("writeOutput", "(JJ)V"));
+                    break;
+                case BrainProgram.CLEAR: {
+                    // if (tape[p + k] > 0) tape[p + k] = 0
+                    loadCell(offset);
+                    op(LCONST_0);
+                    op(LCMP);
+                    int skip = length;
+                    op(IFLE);
+                    op16(0);
+                    beginStore(offset);
+                    op(LCONST_0);
+                    storeCell();
+                    patch(skip, length);
+                    break;
+                }
+                case BrainProgram.SCAN:
+                    // p = run.scan(tape, p, stride, step)
+                    op(ALOAD_2);
+                    op(ALOAD_0);
+                    op(ILOAD_1);
+                    pushInt((int) args[pc]);
+                    pushInt(offsets[pc]);
+                    invoke(method("scan", "(LTape;III)I"));
+                    op(ISTORE_1);
+                    break;
+                case BrainProgram.MUL: {
+                    // if (tape[p] > 0) run.multiply(tape, p + offset, n, tape[p])
+                    loadCell(0);
+                    op(LCONST_0);
+                    op(LCMP);
+                    int skip = length;
+                    op(IFLE);
+                    op16(0);
+                    op(ALOAD_2);
+                    op(ALOAD_0);
+                    op(ILOAD_1);
+                    pushInt(offsets[pc]);
+                    op(IADD);
+                    pushLong(args[pc]);
+                    loadCell(0);
+                    invoke(method("multiply", "(LTape;IJJ)V"));
+                    patch(skip, length);
+                    break;
+                }
+                case BrainProgram.ZERO:
+                    // run.zero(tape, p + k, n)
+                    op(ALOAD_2);
+                    op(ALOAD_0);
+                    pointerPlus(offset);
+                    pushInt((int) args[pc]);
+                    invoke(method("zero", "(LTape;II)V"));
+                    break;
+            }
+        }
+        starts[ops.length] = length;
+        // run.steps = steps
+        op(ALOAD_2);
+        op(LLOAD);
+        op(STEPS);
+        op(PUTFIELD);
+        op16(field("BrainRun", "steps", "J"));
+        op(ILOAD_1);
+        op(IRETURN);
+        // catch (IndexOutOfBoundsException e) { throw run.leftTape(p); }
+        int handler = length;
+        op(POP);
+        op(ALOAD_2);
+        op(ILOAD_1);
+        invoke(method("leftTape", "(I)LBrainPointerException;"));
+        op(ATHROW);
+        if (length > MAX_CODE_LENGTH)
+            return null;
+        for (int i = 0; i < branches; i++)
+            patch(branchAt[i], starts[branchTo[i]]);
+        return classFile(Arrays.copyOf(code, length), handler);
+    }
+
+    /**
+     * Emits p += n followed by a bounds check of p, see {@link #checkCell(int)}.
+     * A move of several steps fails where its first step off the tape would
+     * have, see {@link BrainRun#movedOutside(int, int, int)}.
+     */
+    private void movePointer(int n, int step) {
+        if (n >= Short.MIN_VALUE && n <= Short.MAX_VALUE) {
+            op(WIDE);
+            op(IINC);
+            op16(1);
+            op16(n);
+        } else {
+            op(ILOAD_1);
+            pushInt(n);
+            op(IADD);
+            op(ISTORE_1);
+        }
+        if (step == 0 || step == n) {
+            checkCell(0);
+            return;
+        }
+        // run.movedOutside(p, n, step), as the move failed before it got to p
+        int inside = branchInside(0);
+        op(ALOAD_2);
+        op(ILOAD_1);
+        pushInt(n);
+        pushInt(step);
+        invoke(method("movedOutside", "(III)V"));
+        patch(inside, length);
+    }
+
+    /**
+     * Emits a bounds check of p + offset which calls
+     * {@link BrainRun#outsideTape(int)} if the cell is off the tape.
+     */
+    private void checkCell(int offset) {
+        int inside = branchInside(offset);
+        op(ALOAD_2);
+        pointerPlus(offset);
+        invoke(method("outsideTape", "(I)V"));
+        patch(inside, length);
+    }
+
+    /**
+     * Emits the comparisons of a bounds check of p + offset, which fall
+     * through to the code emitted next if the cell is off the tape.
+     *
+     * @return The index of the branch taken if the cell is on the tape, to be
+     *         patched to after the code handling the cell being off it.
+     */
+    private int branchInside(int offset) {
+        pointerPlus(offset);
+        int negative = length;
+        op(IFLT);
+        op16(0);
+        pointerPlus(offset);
+        tapeLength();
+        int inside = length;
+        op(IF_ICMPLT);
+        op16(0);
+        patch(negative, length);
+        return inside;
+    }
+
+    /**
+     * Emits the start of the run method, which keeps the backing array of the
+     * tape (or the tape itself if it has none) in local 3 and the number of
+     * steps run in local {@link #STEPS}, starting from the steps of the run.
+     */
+    private void prologue() {
+        op(ALOAD_2);
+        op(GETFIELD);
+        op16(field("BrainRun", "steps", "J"));
+        op(LSTORE);
+        op(STEPS);
+        op(ALOAD_0);
+        op(CHECKCAST);
+        op16(type(tapeClass));
+        if (array != null) {
+            op(GETFIELD);
+            op16(field(tapeClass, "cells", array));
+        }
+        op(ASTORE_3);
+    }
+
+    /** Emits a load of tape[p + offset] as a long */
+    private void loadCell(int offset) {
+        cellIndex(offset);
+        if (array == null) {
+            invoke(method(tapeClass, "get", "(I)J"));
+            return;
+        }
+        op(arrayLoad);
+        if (arrayLoad != LALOAD)
+            op(I2L);
+        if (unsigned != 0) {
+            pushLong(unsigned);
+            op(LAND);
+        }
+    }
+
+    /** Emits the start of a store to tape[p + offset], which must be followed by a long value and {@link #storeCell()} */
+    private void beginStore(int offset) {
+        cellIndex(offset);
+    }
+
+    /** Emits the tape (or its backing array) and the index p + offset */
+    private void cellIndex(int offset) {
+        op(ALOAD_3);
+        pointerPlus(offset);
+    }
+
+    /** Emits p + offset */
+    private void pointerPlus(int offset) {
+        op(ILOAD_1);
+        if (offset != 0) {
+            pushInt(offset);
+            op(IADD);
+        }
+    }
+
+    /** Emits the end of a store to tape[p], narrowing the value to the width of the tape */
+    private void storeCell() {
+        if (array == null) {
+            invoke(method(tapeClass, "set", "(IJ)V"));
+            return;
+        }
+        if (arrayStore != LASTORE)
+            op(L2I);
+        op(arrayStore);
+    }
+
+    /** Emits a load of the length of the tape */
+    private void tapeLength() {
+        op(ALOAD_3);
+        if (array == null)
+            invoke(method(tapeClass, "length", "()I"));
+        else
+            op(ARRAYLENGTH);
+    }
+
+
+    /** Emits an int constant */
+    private void pushInt(int value) {
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH);
+            op(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH);
+            op16(value);
+        } else {
+            op(LDC_W);
+            op16(constant("I" + value, 3, 1, value));
+        }
+    }
+
+    /** Emits a long constant */
+    private void pushLong(long value) {
+        if (value == 0) {
+            op(LCONST_0);
+            return;
+        }
+        op(LDC2_W);
+        op16(constant("J" + value, 5, 2, value));
+    }
+
+    /** Emits a call to a method of {@link BrainRun} */
+    private void invoke(int methodref) {
+        op(INVOKEVIRTUAL);
+        op16(methodref);
+    }
+
+    /** Writes a branch offset into an already emitted branch instruction */
+    private void patch(int branch, int target) {
+        int offset = target - branch;
+        code[branch + 1] = (byte) (offset >> 8);
+        code[branch + 2] = (byte) offset;
+    }
+
+    /** Emits a single byte */
+    private void op(int value) {
+        if (length == code.length)
+            code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) value;
+    }
+
+    /** Emits two bytes, most significant first */
+    private void op16(int value) {
+        op(value >> 8);
+        op(value);
+    }
+
+    /**
+     * Adds a numeric constant to the pool.
+     *
+     * @param key   Unique key of the constant.
+     * @param tag   The constant pool tag.
+     * @param slots How many pool indices the constant takes.
+     * @param value The value of the constant.
+     * @return The index of the constant.
+     */
+    private int constant(String key, int tag, int slots, long value) {
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+        pool.write(tag);
+        for (int shift = slots * 32 - 8; shift >= 0; shift -= 8)
+            pool.write((int) (value >> shift));
+        constants.put(key, poolSize);
+        poolSize += slots;
+        return poolSize - slots;
+    }
+
+    /** Adds a UTF8 string to the pool and returns its index */
+    private int utf8(String value) {
+        Integer index = constants.get("U" + value);
+        if (index != null)
+            return index;
+        byte[] bytes = value.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        pool.write(1);
+        pool.write(bytes.length >> 8);
+        pool.write(bytes.length);
+        pool.write(bytes, 0, bytes.length);
+        constants.put("U" + value, poolSize);
+        return poolSize++;
+    }
+
+    /** Adds a pool entry made of a tag and two other pool indices and returns its index */
+    private int pair(String key, int tag, int first, int second) {
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+        pool.write(tag);
+        pool.write(first >> 8);
+        pool.write(first);
+        if (second >= 0) {
+            pool.write(second >> 8);
+            pool.write(second);
+        }
+        constants.put(key, poolSize);
+        return poolSize++;
+    }
+
+    /** Adds a class to the pool and returns its index */
+    private int type(String name) {
+        return pair("C" + name, 7, utf8(name), -1);
+    }
+
+    /** Adds a method of {@link BrainRun} to the pool and returns its index */
+    private int method(String name, String descriptor) {
+        return method("BrainRun", name, descriptor);
+    }
+
+    /** Adds a method to the pool and returns its index */
+    private int method(String owner, String name, String descriptor) {
+        int nameAndType = pair("N" + name + descriptor, 12, utf8(name), utf8(descriptor));
+        return pair("M" + owner + "." + name + descriptor, 10, type(owner), nameAndType);
+    }
+
+    /** Adds a field to the pool and returns its index */
+    private int field(String owner, String name, String descriptor) {
+        int nameAndType = pair("N" + name + descriptor, 12, utf8(name), utf8(descriptor));
+        return pair("F" + owner + "." + name + descriptor, 9, type(owner), nameAndType);
+    }
+
+    /**
+     * Wraps the run method bytecode in a class file. The class file version
+     * predates stack map frames, so none have to be computed for the branches.
+     *
+     * @param body    The bytecode of the run method.
+     * @param handler The index of the handler catching an index off the tape
+     *                anywhere before it.
+     * @return The complete class file.
+     */
+    private byte[] classFile(byte[] body, int handler) {
+        int thisClass = type("BrainJitProgram");
+        int superClass = type("java/lang/Object");
+        int outOfBounds = type("java/lang/IndexOutOfBoundsException");
+        int name = utf8("run");
+        int descriptor = utf8("(LTape;ILBrainRun;)I");
+        int codeAttribute = utf8("Code");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write32(out, 0xCAFEBABE);
+        write16(out, 0);
+        write16(out, 49);
+        write16(out, poolSize);
+        byte[] constantPool = pool.toByteArray();
+        out.write(constantPool, 0, constantPool.length);
+        // final super
+        write16(out, 0x0030);
+        write16(out, thisClass);
+        write16(out, superClass);
+        // no interfaces or fields, one method
+        write16(out, 0);
+        write16(out, 0);
+        write16(out, 1);
+        // public static
+        write16(out, 0x0009);
+        write16(out, name);
+        write16(out, descriptor);
+        write16(out, 1);
+        write16(out, codeAttribute);
+        write32(out, 12 + body.length + 8);
+        // max stack, max locals
+        write16(out, 16);
+        write16(out, STEPS + 2);
+        write32(out, body.length);
+        out.write(body, 0, body.length);
+        // one exception handler, then no code attributes and no class attributes
+        write16(out, 1);
+        write16(out, 0);
+        write16(out, handler);
+        write16(out, handler);
+        write16(out, outOfBounds);
+        write16(out, 0);
+        write16(out, 0);
+        return out.toByteArray();
+    }
+
+    private static void write16(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    private static void write32(ByteArrayOutputStream out, int value) {
+        write16(out, value >> 16);
+        write16(out, value);
+    }
+}
@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * BrainLexer
+ *
+ * @author Daniel Morgan
+ * @description Reads a bp program from a {@link Reader} a block of characters
+ *              at a time and turns it straight into opcodes, without ever
+ *              holding the source or a list of tokens in memory. Each character
+ *              is looked at once, so lexing takes time linear in the size of the
+ *              program. The result is the same as lexing with
+ *              {@link BrainParser#parse(String)} and compiling the tokens: a
+ *              value in brackets is given to the command before it, commands
+ *              without a value get their default value, and values which do not
+ *              follow a command are checked but ignored.
+ *              <p>
+ *              Programs read from files have every line trimmed and joined
+ *              together, which only matters for values spanning lines.
+ */
+public class BrainLexer {
+    /** The size of the block of characters read at once */
+    private static final int BLOCK_SIZE = 8192;
+    /** Marks that there is no command waiting for its value */
+    private static final char NO_COMMAND = 0;
+
+    /** The program being read */
+    private final Reader source;
+    /** If every line should be trimmed like in {@link BrainParser#readProgram} */
+    private final boolean trimsLines;
+    /** The block of characters being lexed */
+    private final char[] block = new char[BLOCK_SIZE];
+    /** The index of the next character in the block */
+    private int blockIndex = 0;
+    /** The number of characters in the block */
+    private int blockLength = 0;
+    /** The line of the next character, starting at 1 */
+    private int line = 1;
+    /** The column of the next character, starting at 1 */
+    private int column = 1;
+    /** If the previous character was a \r, so a following \n ends the same line */
+    private boolean afterReturn = false;
+    /** If no character on the current line has been kept yet */
+    private boolean atLineStart = true;
+    /** Whitespace held back until it is known not to end the line */
+    private final StringBuilder heldSpace = new StringBuilder();
+    /** The index of the next held back character to give out */
+    private int heldIndex = 0;
+    /** The text of the value being read */
+    private final StringBuilder value = new StringBuilder();
+
+    /** Opcodes of the program being written */
+    private int[] code = new int[64];
+    /** Operands of the program being written */
+    private long[] operands = new long[64];
+    /** Source line of every instruction written */
+    private int[] lines = new int[64];
+    /** Source column of every instruction written */
+    private int[] columns = new int[64];
+    /** Number of instructions written so far */
+    private int length = 0;
+
+    /**
+     * Creates a lexer reading from the passed source.
+     *
+     * @param _source     The program to read.
+     * @param _trimsLines If every line should be trimmed of surrounding whitespace
+     *                    and joined to the next, as when reading a file.
+     */
+    public BrainLexer(Reader _source, boolean _trimsLines) {
+        source = _source;
+        trimsLines = _trimsLines;
+    }
+
+    /**
+     * Reads the whole program. The blocks of the returned program are not yet
+     * paired up, and every instruction records the position of its command.
+     *
+     * @return The program read, with an operand of 0 for every block.
+     * @throws IOException          If the source cannot be read.
+     * @throws BrainSyntaxException If a value is not a character literal or a
+     *                              number.
+     */
+    public BrainProgram lex() throws IOException {
+        // the command waiting to see if a value follows it, and where it is
+        char pending = NO_COMMAND;
+        int pendingLine = 0;
+        int pendingColumn = 0;
+        int c;
+        while ((c = next()) >= 0) {
+            if (c == '{') {
+                long parsed = readValue(line, column - 1);
+                if (pending != NO_COMMAND) {
+                    emit(pending, true, parsed, pendingLine, pendingColumn);
+                    pending = NO_COMMAND;
+                }
+            } else if ("+-=><^[],.".indexOf(c) >= 0) {
+                if (pending != NO_COMMAND)
+                    emit(pending, false, 0, pendingLine, pendingColumn);
+                pending = (char) c;
+                pendingLine = line;
+                pendingColumn = column - 1;
+            }
+        }
+        if (pending != NO_COMMAND)
+            emit(pending, false, 0, pendingLine, pendingColumn);
+        return new BrainProgram(Arrays.copyOf(code, length), Arrays.copyOf(operands, length), new int[length],
+                Arrays.copyOf(lines, length), Arrays.copyOf(columns, length));
+    }
+
+    /**
+     * Reads the text of a value up to its closing bracket (or the end of the
+     * program) and decodes it.
+     *
+     * @param valueLine   The line the value starts on, for errors.
+     * @param valueColumn The column the value starts on, for errors.
+     * @return The character or number the value represents.
+     */
+    private long readValue(int valueLine, int valueColumn) throws IOException {
+        value.setLength(0);
+        int c;
+        while ((c = next()) >= 0 && c != '}')
+            value.append((char) c);
+        // a character literal only needs quotes around its first character e.g {'a'}
+        if (value.length() >= 3 && value.charAt(0) == '\'' && value.charAt(2) == '\'')
+            return value.charAt(1);
+        try {
+            if (value.length() > 0 && value.charAt(0) != '\'')
+                return Long.parseLong(value, 0, value.length(), 10);
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new BrainSyntaxException("Expected a character literal {'a'} or a number {123} but found " + value
+                + " instead.", valueLine, valueColumn);
+    }
+
+    /**
+     * Gets the line in the source of an instruction read by {@link #lex()}.
+     *
+     * @param index The index of the instruction.
+     * @return The line of the command, starting at 1.
+     */
+    public int lineOf(int index) {
+        return lines[index];
+    }
+
+    /**
+     * Gets the column in the source of an instruction read by {@link #lex()}.
+     *
+     * @param index The index of the instruction.
+     * @return The column of the command, starting at 1.
+     */
+    public int columnOf(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Appends the instruction for a command, using the default value of the
+     * command if it has none.
+     *
+     * @param command  The character of the command.
+     * @param hasValue If a value followed the command.
+     * @param value    The value, if there was one.
+     * @param line     The line of the command.
+     * @param column   The column of the command.
+     */
+    private void emit(char command, boolean hasValue, long value, int line, int column) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+            operands = Arrays.copyOf(operands, length * 2);
+            lines = Arrays.copyOf(lines, length * 2);
+            columns = Arrays.copyOf(columns, length * 2);
+        }
+        lines[length] = line;
+        columns[length] = column;
+        long operand = 0;
+        switch (command) {
+            case '+':
+                code[length] = BrainProgram.ADD;
+                operand = hasValue ? value : 1;
+                break;
+            case '-':
+                code[length] = BrainProgram.ADD;
+                operand = -(hasValue ? value : 1);
+                break;
+            case '=':
+                code[length] = BrainProgram.SET;
+                operand = hasValue ? value : '0';
+                break;
+            case '>':
+                code[length] = BrainProgram.MOVE;
+                operand = (int) (hasValue ? value : 1);
+                break;
+            case '<':
+                code[length] = BrainProgram.MOVE;
+                operand = -(int) (hasValue ? value : 1);
+                break;
+            case '^':
+                code[length] = BrainProgram.GOTO;
+                operand = (int) (hasValue ? value : '0');
+                break;
+            case '[':
+                code[length] = BrainProgram.SBLOCK;
+                break;
+            case ']':
+                code[length] = BrainProgram.EBLOCK;
+                break;
+            case ',':
+                code[length] = BrainProgram.IN;
+                operand = value;
+                break;
+            case '.':
+                code[length] = BrainProgram.OUT;
+                operand = value;
+                break;
+        }
+        operands[length] = operand;
+        length++;
+    }
+
+    /**
+     * Gets the next character of the program, leaving out line breaks and the
+     * whitespace around every line if lines are trimmed.
+     *
+     * @return The next character, or -1 at the end of the program.
+     */
+    private int next() throws IOException {
+        if (heldIndex < heldSpace.length())
+            return takeHeld();
+        while (true) {
+            int c = read();
+            if (c < 0 || !trimsLines)
+                return c;
+            if (c == '\n' || c == '\r') {
+                // the line ended, so the whitespace at its end is dropped
+                heldSpace.setLength(0);
+                atLineStart = true;
+            } else if (c <= ' ') {
+                if (!atLineStart)
+                    heldSpace.append((char) c);
+            } else {
+                atLineStart = false;
+                if (heldSpace.length() == 0)
+                    return c;
+                // the whitespace was inside the line after all
+                heldSpace.append((char) c);
+                return takeHeld();
+            }
+        }
+    }
+
+    /**
+     * Gives out the next held back character, emptying the held characters once
+     * they have all been given out.
+     */
+    private char takeHeld() {
+        char c = heldSpace.charAt(heldIndex++);
+        if (heldIndex == heldSpace.length()) {
+            heldSpace.setLength(0);
+            heldIndex = 0;
+        }
+        return c;
+    }
+
+    /**
+     * Reads the next raw character from the source, keeping track of its line
+     * and column.
+     *
+     * @return The next character, or -1 at the end of the source.
+     */
+    private int read() throws IOException {
+        if (blockIndex == blockLength) {
+            blockLength = source.read(block, 0, BLOCK_SIZE);
+            blockIndex = 0;
+            if (blockLength <= 0) {
+                blockLength = 0;
+                return -1;
+            }
+        }
+        char c = block[blockIndex++];
+        if (c == '\n') {
+            if (!afterReturn)
+                line++;
+            column = 1;
+        } else if (c == '\r') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+        afterReturn = c == '\r';
+        return c;
+    }
+}
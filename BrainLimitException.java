@@ -0,0 +1,90 @@
+/**
+ * BrainLimitException
+ *
+ * @author Daniel Morgan
+ * @description Raised when a run is stopped before its program ended, because
+ *              it used up its steps or its time or was cancelled. Records how
+ *              far the run got, so a stopped program can be told apart from one
+ *              which was about to finish.
+ */
+public class BrainLimitException extends BrainException {
+    private static final long serialVersionUID = 1L;
+
+    /** Why a run was stopped */
+    public enum Reason {
+        /** The run executed its limit of instructions */
+        STEPS,
+        /** The run passed its time limit */
+        TIME,
+        /** The run was {@link BrainCancellation#cancel() cancelled} */
+        CANCELLED
+    }
+
+    /** Why the run was stopped */
+    private final Reason reason;
+    /** The number of instructions executed before stopping */
+    private final long steps;
+    /** The index of the instruction the run stopped at */
+    private final int instruction;
+    /** The position of the pointer when the run stopped */
+    private final int position;
+
+    /**
+     * Creates an error for a run which was stopped.
+     *
+     * @param _reason      Why the run was stopped.
+     * @param _steps       The number of instructions executed before stopping.
+     * @param _instruction The index of the instruction the run stopped at.
+     * @param _position    The position of the pointer when the run stopped.
+     */
+    public BrainLimitException(Reason _reason, long _steps, int _instruction, int _position) {
+        super(message(_reason) + " after " + _steps + " steps, at instruction " + _instruction
+                + " with the pointer at " + _position);
+        reason = _reason;
+        steps = _steps;
+        instruction = _instruction;
+        position = _position;
+    }
+
+    /**
+     * Describes why a run was stopped.
+     */
+    private static String message(Reason reason) {
+        switch (reason) {
+            case STEPS:
+                return "The program ran out of steps";
+            case TIME:
+                return "The program ran out of time";
+            default:
+                return "The program was cancelled";
+        }
+    }
+
+    /**
+     * Gets why the run was stopped.
+     */
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * Gets the number of instructions executed before the run was stopped.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Gets the index of the instruction the run was stopped at.
+     */
+    public int getInstruction() {
+        return instruction;
+    }
+
+    /**
+     * Gets the position of the pointer when the run was stopped.
+     */
+    public int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,669 @@
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BrainLockstep
+ *
+ * @author Daniel Morgan
+ * @description Runs one {@link BrainProgram} over many inputs at once, every
+ *              input on its own tape, by stepping all of the tapes through the
+ *              program together. Each instruction is dispatched once for up to
+ *              {@link #LANES} tapes (lanes) and then applied to every lane,
+ *              rather than once per lane as separate {@link BrainRun runs}
+ *              would, which pays off when a program is cheap per instruction
+ *              and run over thousands of small inputs.
+ *              <p>
+ *              The tapes of a group of lanes are stored together as a single
+ *              {@link Tape} of the narrowest type for the program, with the
+ *              same cell of every lane next to each other (cell * lanes + lane),
+ *              so lanes whose pointers agree touch one run of memory.
+ *              <p>
+ *              Lanes only disagree at blocks, where each lane can enter, skip
+ *              or leave a loop on its own. The lanes running the current
+ *              instruction are held as a bit mask. A loop runs with the mask of
+ *              the lanes which entered it, dropping lanes as they leave, and
+ *              once none are left the mask from before the loop is restored, so
+ *              lanes which left early wait at its end for the rest. A lane
+ *              which fails is dropped from every mask and keeps its error,
+ *              without stopping the others.
+ *              <p>
+ *              Every lane starts from a copy of the same tape and pointer and
+ *              behaves like a {@link BrainRun} of the program on a tape of that
+ *              length: output, errors, where the pointer is left and the number
+ *              of steps are the same. Limits stop lanes at the end of loop
+ *              iterations as they do for runs, the step limit lane by lane and
+ *              the time limit and cancellation the whole batch.
+ */
+public class BrainLockstep {
+    /** The most lanes stepped together, one for each bit of a mask */
+    public static final int LANES = Long.SIZE;
+    /** How many instructions may pass between checks of the time limit and cancellation */
+    private static final long CHECK_INTERVAL = 1 << 16;
+
+    /** The program being run */
+    private final BrainProgram program;
+    /** The tape every lane starts from */
+    private final Tape start;
+    /** The position of the pointer every lane starts from */
+    private final int startPointer;
+    /** The length of the tape of each lane */
+    private final int length;
+    /** The minimum cell value, from the program */
+    private final long cellMin;
+    /** The maximum cell value, from the program */
+    private final long cellMax;
+    /** If cells wrap when they pass their min or max, from the program */
+    private final boolean doesWrapping;
+    /** If lanes should error on the pointer going out of the bounds of the tape with goto */
+    private boolean doesPointerSaftey = false;
+    /** If the pointer should wrap to the other end of the tape when moved past it with goto */
+    private boolean doesPointerWrapping = false;
+    /** The most steps each lane may run for */
+    private long stepLimit = Long.MAX_VALUE;
+    /** The most time a group of lanes may run for in nanoseconds, or 0 for no limit */
+    private long timeLimit = 0;
+    /** The token used to stop the lanes from another thread, if any */
+    private BrainCancellation cancellation = null;
+
+    /**
+     * Creates a runner for a program, with every lane starting from a copy of
+     * the passed tape and pointer.
+     *
+     * @param _program The program to run.
+     * @param _start   The tape every lane starts from, which is not changed.
+     * @param _pointer The position of the pointer every lane starts from.
+     */
+    public BrainLockstep(BrainProgram _program, Tape _start, int _pointer) {
+        program = _program;
+        start = _start;
+        startPointer = _pointer;
+        length = _start.length();
+        cellMin = _program.getCellMin();
+        cellMax = _program.getCellMax();
+        doesWrapping = _program.getWrapping();
+    }
+
+    /**
+     * Runs the program once for every input, {@link #LANES} inputs at a time.
+     * Inputs are read lazily and are not closed.
+     *
+     * @param inputs Where each lane reads its input from.
+     * @return The result of every lane, in the same order as the inputs.
+     */
+    public List<Result> run(List<InputStream> inputs) {
+        List<Result> results = new ArrayList<Result>(inputs.size());
+        for (int from = 0; from < inputs.size(); from += LANES)
+            results.addAll(new Group(inputs.subList(from, Math.min(inputs.size(), from + LANES))).run());
+        return results;
+    }
+
+    /** A group of lanes stepped through the program together */
+    private class Group {
+        /** The number of lanes, and the distance between neighbouring cells of a lane */
+        final int width;
+        /** The cells of every lane, the same cell of each lane next to each other */
+        final Tape cells;
+        /** The position of the pointer of each lane */
+        final int[] pointers;
+        /** Where each lane reads input from */
+        final BrainInput[] inputs;
+        /** What each lane has printed */
+        final ByteArrayOutputStream[] bytes;
+        /** Where each lane prints to */
+        final BrainOutput[] outputs;
+        /** The steps each lane ran while it was last dropped from the mask */
+        final long[] steps;
+        /** The instruction count at which each lane last joined the mask */
+        final long[] joined;
+        /** Why each lane failed, or null */
+        final BrainException[] errors;
+        /** The lanes which have not failed */
+        long live;
+        /** The lanes running the current instruction */
+        long active;
+        /** The number of instructions dispatched, counting the current one */
+        long issued = 0;
+
+        Group(List<InputStream> sources) {
+            width = sources.size();
+            cells = Tape.forRange(doesWrapping ? cellMin : Long.MIN_VALUE, doesWrapping ? cellMax : Long.MAX_VALUE,
+                    Math.multiplyExact(length, width));
+            pointers = new int[width];
+            inputs = new BrainInput[width];
+            bytes = new ByteArrayOutputStream[width];
+            outputs = new BrainOutput[width];
+            steps = new long[width];
+            joined = new long[width];
+            errors = new BrainException[width];
+            for (int lane = 0; lane < width; lane++) {
+                pointers[lane] = startPointer;
+                inputs[lane] = new BrainInput(sources.get(lane));
+                bytes[lane] = new ByteArrayOutputStream();
+                outputs[lane] = new BrainOutput(bytes[lane]);
+            }
+            for (int i = 0; i < length; i++) {
+                long value = start.get(i);
+                if (value != 0)
+                    cells.fill(i * width, i * width + width, value);
+            }
+            live = width == LANES ? -1L : (1L << width) - 1;
+            active = live;
+        }
+
+        /**
+         * Runs every lane of the group to the end of the program.
+         *
+         * @return The result of every lane.
+         */
+        List<Result> run() {
+            final int[] code = program.code;
+            final long[] operands = program.operands;
+            final int[] offsets = program.offsets;
+            final Tape cells = this.cells;
+            final int[] pointers = this.pointers;
+            final int width = this.width;
+            final int length = BrainLockstep.this.length;
+            final long deadline = System.nanoTime() + timeLimit;
+            final boolean checksTime = timeLimit > 0 || cancellation != null;
+            // the masks from before each loop being run, and the starting blocks of those loops
+            long[] saved = new long[8];
+            int[] loops = new int[8];
+            int depth = 0;
+            long nextCheck = CHECK_INTERVAL;
+            int pc = applyPrefix();
+            for (; pc < code.length; pc++) {
+                // once every lane in a loop has failed the lanes waiting for it carry on after it
+                while (active == 0 && depth > 0) {
+                    pc = (int) operands[loops[--depth]] + 1;
+                    restore(saved[depth]);
+                }
+                if (active == 0 || pc >= code.length)
+                    break;
+                issued++;
+                long lanes = active;
+                // a lane failing part way through carries on with the lanes after it
+                while (lanes != 0) {
+                    try {
+                        switch (code[pc]) {
+                            case BrainProgram.ADD:
+                                for (; lanes != 0; lanes &= lanes - 1) {
+                                    int lane = Long.numberOfTrailingZeros(lanes);
+                                    int q = pointers[lane] + offsets[pc];
+                                    if (q < 0 || q >= length) {
+                                        outsideTape(lane, q);
+                                        continue;
+                                    }
+                                    int cell = q * width + lane;
+                                    cells.set(cell, wrap(cells.get(cell) + operands[pc]));
+                                }
+                                break;
+                            case BrainProgram.SET:
+                                for (; lanes != 0; lanes &= lanes - 1) {
+                                    int lane = Long.numberOfTrailingZeros(lanes);
+                                    int q = pointers[lane] + offsets[pc];
+                                    if (q < 0 || q >= length) {
+                                        outsideTape(lane, q);
+                                        continue;
+                                    }
+                                    cells.set(q * width + lane, wrap(operands[pc]));
+                                }
+                                break;
+                            case BrainProgram.MOVE:
+                                for (; lanes != 0; lanes &= lanes - 1) {
+                                    int lane = Long.numberOfTrailingZeros(lanes);
+                                    int p = pointers[lane] + (int) operands[pc];
+                                    pointers[lane] = p;
+                                    if (p < 0 || p >= length)
+                                        outsideTape(lane, BrainRun.firstOutside(p, (int) operands[pc], offsets[pc], length));
+                                }
+                                break;
+                            case BrainProgram.GOTO:
+                                for (; lanes != 0; lanes &= lanes - 1)
+                                    gotoPointer(Long.numberOfTrailingZeros(lanes), (int) operands[pc]);
+                                break;
+                            case BrainProgram.SBLOCK: {
+                                long entering = positive(lanes);
+                                lanes = 0;
+                                if (entering == 0) {
+                                    // skip past the matching ending block
+                                    pc = (int) operands[pc];
+                                    break;
+                                }
+                                if (depth == saved.length) {
+                                    saved = Arrays.copyOf(saved, depth * 2);
+                                    loops = Arrays.copyOf(loops, depth * 2);
+                                }
+                                saved[depth] = active;
+                                loops[depth++] = pc;
+                                leave(active & ~entering);
+                                break;
+                            }
+                            case BrainProgram.EBLOCK: {
+                                long repeating = positive(lanes);
+                                lanes = 0;
+                                if (repeating == 0) {
+                                    // every lane has left, so the lanes from before the loop carry on
+                                    restore(saved[--depth]);
+                                    break;
+                                }
+                                leave(active & ~repeating);
+                                // return to just after the matching starting block
+                                pc = (int) operands[pc];
+                                if (stepLimit != Long.MAX_VALUE)
+                                    checkSteps(pc);
+                                if (checksTime && issued >= nextCheck) {
+                                    checkTime(pc, deadline);
+                                    nextCheck = issued + CHECK_INTERVAL;
+                                }
+                                break;
+                            }
+                            case BrainProgram.IN:
+                                for (; lanes != 0; lanes &= lanes - 1) {
+                                    int lane = Long.numberOfTrailingZeros(lanes);
+                                    int q = pointers[lane] + offsets[pc];
+                                    if (q < 0 || q >= length) {
+                                        outsideTape(lane, q);
+                                        continue;
+                                    }
+                                    cells.set(q * width + lane, wrap(operands[pc] == 'c' ? inputs[lane].readChar()
+                                            : inputs[lane].readLong()));
+                                }
+                                break;
+                            case BrainProgram.OUT:
+                                for (; lanes != 0; lanes &= lanes - 1) {
+                                    int lane = Long.numberOfTrailingZeros(lanes);
+                                    int q = pointers[lane] + offsets[pc];
+                                    if (q < 0 || q >= length) {
+                                        outsideTape(lane, q);
+                                        continue;
+                                    }
+                                    long value = cells.get(q * width + lane);
+                                    if (operands[pc] == 'c')
+                                        outputs[lane].writeChar((char) (value % 255));
+                                    else
+                                        outputs[lane].writeLong(value);
+                                }
+                                break;
+                            case BrainProgram.CLEAR:
+                                for (; lanes != 0; lanes &= lanes - 1) {
+                                    int lane = Long.numberOfTrailingZeros(lanes);
+                                    int q = pointers[lane] + offsets[pc];
+                                    if (q < 0 || q >= length) {
+                                        outsideTape(lane, q);
+                                        continue;
+                                    }
+                                    int cell = q * width + lane;
+                                    if (cells.get(cell) > 0)
+                                        cells.set(cell, 0);
+                                }
+                                break;
+                            case BrainProgram.SCAN:
+                                for (; lanes != 0; lanes &= lanes - 1)
+                                    scan(Long.numberOfTrailingZeros(lanes), (int) operands[pc], offsets[pc]);
+                                break;
+                            case BrainProgram.MUL:
+                                for (; lanes != 0; lanes &= lanes - 1) {
+                                    int lane = Long.numberOfTrailingZeros(lanes);
+                                    int p = pointers[lane];
+                                    if (p < 0 || p >= length) {
+                                        outsideTape(lane, p);
+                                        continue;
+                                    }
+                                    long times = cells.get(p * width + lane);
+                                    if (times <= 0)
+                                        continue;
+                                    int target = p + offsets[pc];
+                                    if (target < 0 || target >= length) {
+                                        outsideTape(lane, target);
+                                        continue;
+                                    }
+                                    int cell = target * width + lane;
+                                    cells.set(cell, BrainRun.wrapRepeated(cells.get(cell), operands[pc], times, cellMin,
+                                            cellMax, doesWrapping));
+                                }
+                                break;
+                            case BrainProgram.ZERO:
+                                for (; lanes != 0; lanes &= lanes - 1)
+                                    zero(Long.numberOfTrailingZeros(lanes), offsets[pc], (int) operands[pc]);
+                                break;
+                        }
+                    } catch (BrainException e) {
+                        // only the lane at the bottom of the mask can have failed
+                        fail(Long.numberOfTrailingZeros(lanes), e);
+                        lanes &= lanes - 1;
+                    }
+                }
+            }
+            leave(active);
+            List<Result> results = new ArrayList<Result>(width);
+            for (int lane = 0; lane < width; lane++) {
+                outputs[lane].flush();
+                results.add(new Result(bytes[lane].toByteArray(), errors[lane], steps[lane], pointers[lane]));
+            }
+            return results;
+        }
+
+        /**
+         * Applies the prefix of the program to every lane if it applies to the
+         * starting tape, which every lane has a copy of.
+         *
+         * @return The instruction the lanes start from.
+         */
+        private int applyPrefix() {
+            BrainPrefix prefix = program.prefix;
+            if (prefix == null || prefix.steps >= stepLimit || !prefix.appliesTo(start, startPointer))
+                return 0;
+            for (int lane = 0; lane < width; lane++) {
+                pointers[lane] = prefix.apply(new LaneTape(lane), startPointer, outputs[lane]);
+                steps[lane] = prefix.steps;
+            }
+            return prefix.end;
+        }
+
+        /**
+         * Finds the lanes in a mask whose cell under the pointer is positive,
+         * failing any whose pointer is off the tape.
+         */
+        private long positive(long lanes) {
+            long found = 0;
+            for (; lanes != 0; lanes &= lanes - 1) {
+                int lane = Long.numberOfTrailingZeros(lanes);
+                int p = pointers[lane];
+                if (p < 0 || p >= length)
+                    outsideTape(lane, p);
+                else if (cells.get(p * width + lane) > 0)
+                    found |= 1L << lane;
+            }
+            return found;
+        }
+
+        /**
+         * Drops lanes from the mask, adding the steps they ran while in it.
+         */
+        private void leave(long lanes) {
+            active &= ~lanes;
+            for (; lanes != 0; lanes &= lanes - 1) {
+                int lane = Long.numberOfTrailingZeros(lanes);
+                steps[lane] += issued - joined[lane];
+            }
+        }
+
+        /**
+         * Sets the mask back to the one from before a loop, less any lanes which
+         * have failed since.
+         */
+        private void restore(long mask) {
+            long joining = mask & live & ~active;
+            active = mask & live;
+            for (; joining != 0; joining &= joining - 1)
+                joined[Long.numberOfTrailingZeros(joining)] = issued;
+        }
+
+        /**
+         * Gets the number of steps a lane in the mask has run.
+         */
+        private long stepsOf(int lane) {
+            return steps[lane] + issued - joined[lane];
+        }
+
+        /**
+         * Stops every lane about to repeat a loop which has passed the step
+         * limit.
+         *
+         * @param instruction The starting block of the loop.
+         */
+        private void checkSteps(int instruction) {
+            for (long lanes = active; lanes != 0; lanes &= lanes - 1) {
+                int lane = Long.numberOfTrailingZeros(lanes);
+                long laneSteps = stepsOf(lane);
+                if (laneSteps > stepLimit)
+                    fail(lane, new BrainLimitException(BrainLimitException.Reason.STEPS, laneSteps, instruction,
+                            pointers[lane]));
+            }
+        }
+
+        /**
+         * Stops every lane still running, including lanes waiting at the end of
+         * a loop, if the time limit has passed or the lanes were cancelled.
+         *
+         * @param instruction The starting block of the loop being repeated.
+         * @param deadline    The time the lanes have to finish by.
+         */
+        private void checkTime(int instruction, long deadline) {
+            BrainLimitException.Reason reason = null;
+            if (timeLimit > 0 && System.nanoTime() - deadline > 0)
+                reason = BrainLimitException.Reason.TIME;
+            else if (cancellation != null && cancellation.isCancelled())
+                reason = BrainLimitException.Reason.CANCELLED;
+            if (reason == null)
+                return;
+            for (long lanes = live; lanes != 0; lanes &= lanes - 1) {
+                int lane = Long.numberOfTrailingZeros(lanes);
+                long laneSteps = (active & 1L << lane) != 0 ? stepsOf(lane) : steps[lane];
+                fail(lane, new BrainLimitException(reason, laneSteps, instruction, pointers[lane]));
+            }
+        }
+
+        /**
+         * Fails a lane whose pointer, or a cell it used, is off the tape.
+         *
+         * @param lane     The lane.
+         * @param position The position off the tape.
+         */
+        private void outsideTape(int lane, int position) {
+            pointers[lane] = position;
+            fail(lane, new BrainPointerException(position, length));
+        }
+
+        /**
+         * Stops a lane, keeping why it failed.
+         */
+        private void fail(int lane, BrainException error) {
+            if ((active & 1L << lane) != 0)
+                leave(1L << lane);
+            live &= ~(1L << lane);
+            errors[lane] = error;
+        }
+
+        /**
+         * Moves the pointer of a lane to a cell like {@link BrainRun}, wrapping it
+         * to the other end of the tape if pointer wrapping is enabled.
+         */
+        private void gotoPointer(int lane, int position) {
+            if (doesPointerSaftey && (position < 0 || position >= length)) {
+                outsideTape(lane, position);
+                return;
+            }
+            if (doesPointerWrapping) {
+                if (position < 0)
+                    position = length - 1;
+                else if (position > length)
+                    position = 0;
+            }
+            pointers[lane] = position;
+        }
+
+        /**
+         * Moves the pointer of a lane by a stride until it is on a cell which is
+         * not positive.
+         */
+        private void scan(int lane, int stride, int step) {
+            int p = pointers[lane];
+            while (true) {
+                if (p < 0 || p >= length) {
+                    outsideTape(lane, p == pointers[lane] ? p : BrainRun.firstOutside(p, stride, step, length));
+                    return;
+                }
+                if (cells.get(p * width + lane) <= 0)
+                    break;
+                p += stride;
+            }
+            pointers[lane] = p;
+        }
+
+        /**
+         * Sets each of a run of cells of a lane to 0 if it is positive, one after
+         * another, failing at the first cell off the tape.
+         *
+         * @param lane   The lane.
+         * @param offset The offset of the first cell from the pointer.
+         * @param count  The number of cells, negative to go down the tape.
+         */
+        private void zero(int lane, int offset, int count) {
+            int step = count > 0 ? 1 : -1;
+            int cell = pointers[lane] + offset;
+            for (int i = 0; i != count; i += step, cell += step) {
+                if (cell < 0 || cell >= length) {
+                    outsideTape(lane, cell);
+                    return;
+                }
+                int index = cell * width + lane;
+                if (cells.get(index) > 0)
+                    cells.set(index, 0);
+            }
+        }
+
+        /** The cells of a single lane, as a tape of its own */
+        private class LaneTape extends Tape {
+            /** The lane */
+            private final int lane;
+
+            LaneTape(int _lane) {
+                lane = _lane;
+            }
+
+            @Override
+            public long get(int index) {
+                return cells.get(index * width + lane);
+            }
+
+            @Override
+            public void set(int index, long value) {
+                cells.set(index * width + lane, value);
+            }
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public void resize(int newLength) {
+                throw new UnsupportedOperationException("The tape of a lane can not be resized");
+            }
+        }
+    }
+
+    /**
+     * Wraps a value which is about to be stored in a cell.
+     *
+     * @see BrainRun#wrap(long, long, long, boolean)
+     */
+    private long wrap(long value) {
+        return BrainRun.wrap(value, cellMin, cellMax, doesWrapping);
+    }
+
+    /**
+     * Sets whether lanes should error on the pointer being moved off the tape
+     * with goto
+     */
+    public void setPointerSaftey(boolean _doesPointerSaftey) {
+        doesPointerSaftey = _doesPointerSaftey;
+    }
+
+    /**
+     * Gets whether lanes error on the pointer being moved off the tape with goto
+     */
+    public boolean getPointerSaftey() {
+        return doesPointerSaftey;
+    }
+
+    /**
+     * Sets whether the pointer should wrap to the other end of the tape when it
+     * is moved past it with goto
+     */
+    public void setPointerWrapping(boolean _doesPointerWrapping) {
+        doesPointerWrapping = _doesPointerWrapping;
+    }
+
+    /**
+     * Gets whether the pointer wraps to the other end of the tape
+     */
+    public boolean getPointerWrapping() {
+        return doesPointerWrapping;
+    }
+
+    /**
+     * Sets the most steps each lane may run for before it is stopped
+     */
+    public void setStepLimit(long _stepLimit) {
+        stepLimit = _stepLimit;
+    }
+
+    /**
+     * Gets the most steps each lane may run for
+     */
+    public long getStepLimit() {
+        return stepLimit;
+    }
+
+    /**
+     * Sets the most time in milliseconds each group of lanes may run for before
+     * it is stopped, or 0 for no limit
+     */
+    public void setTimeLimit(long _timeLimit) {
+        timeLimit = _timeLimit * 1000000;
+    }
+
+    /**
+     * Gets the most time in milliseconds each group of lanes may run for, or 0
+     * for no limit
+     */
+    public long getTimeLimit() {
+        return timeLimit / 1000000;
+    }
+
+    /**
+     * Sets the token used to stop the lanes from another thread, or null for
+     * none
+     */
+    public void setCancellation(BrainCancellation _cancellation) {
+        cancellation = _cancellation;
+    }
+
+    /**
+     * Gets the token used to stop the lanes from another thread
+     */
+    public BrainCancellation getCancellation() {
+        return cancellation;
+    }
+
+    /** The outcome of running the program over one input */
+    public static class Result {
+        /** Everything the lane printed, including before it failed */
+        public final byte[] output;
+        /** Why the lane failed, or null if it ran to the end of the program */
+        public final BrainException error;
+        /** The number of steps the lane ran for, counting an instruction which failed */
+        public final long steps;
+        /** Where the lane left the pointer, or where it failed */
+        public final int pointer;
+
+        Result(byte[] _output, BrainException _error, long _steps, int _pointer) {
+            output = _output;
+            error = _error;
+            steps = _steps;
+            pointer = _pointer;
+        }
+
+        /**
+         * Checks if the lane ran to the end of the program.
+         */
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+}
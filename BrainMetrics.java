@@ -0,0 +1,152 @@
+import java.util.Arrays;
+
+/**
+ * BrainMetrics
+ *
+ * @author Daniel Morgan
+ * @description Counts what the programs run by a {@link BrainRun} or
+ *              {@link BrainParser} did: how many times every opcode ran, how
+ *              many loop iterations there were, how far the pointer went and
+ *              how long the runs took. Every count is a long, so they do not
+ *              overflow on long runs, and they add up over every run measured
+ *              until {@link #reset()} is called.
+ *              <p>
+ *              Measuring is optional. Runs without metrics do no counting at
+ *              all, while runs with metrics are interpreted one instruction at a
+ *              time (even if JIT compiling is enabled) so that every
+ *              instruction can be counted. Metrics must only be used by one
+ *              thread at a time.
+ */
+public class BrainMetrics {
+    /** How many times each opcode ran, at the index of the opcode */
+    private final long[] counts = new long[BrainProgram.OPCODES];
+    /** How many times a loop jumped back to its start */
+    private long loopIterations = 0;
+    /** The number of runs measured */
+    private long runs = 0;
+    /** The total time spent running in nanoseconds */
+    private long nanos = 0;
+    /** The lowest position the pointer reached */
+    private int minPointer = Integer.MAX_VALUE;
+    /** The highest position the pointer reached */
+    private int maxPointer = Integer.MIN_VALUE;
+    /** The furthest the pointer moved from where its run started */
+    private long maxExcursion = 0;
+
+    /**
+     * Adds the counts of a run to the totals.
+     *
+     * @param _counts         How many times each opcode ran.
+     * @param _loopIterations How many times a loop jumped back to its start.
+     * @param start           The position the pointer started at.
+     * @param min             The lowest position the pointer reached.
+     * @param max             The highest position the pointer reached.
+     * @param _nanos          How long the run took in nanoseconds.
+     */
+    void record(long[] _counts, long _loopIterations, int start, int min, int max, long _nanos) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += _counts[i];
+        loopIterations += _loopIterations;
+        runs++;
+        nanos += _nanos;
+        minPointer = Math.min(minPointer, min);
+        maxPointer = Math.max(maxPointer, max);
+        maxExcursion = Math.max(maxExcursion, Math.max((long) max - start, (long) start - min));
+    }
+
+    /**
+     * Clears every count.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        loopIterations = 0;
+        runs = 0;
+        nanos = 0;
+        minPointer = Integer.MAX_VALUE;
+        maxPointer = Integer.MIN_VALUE;
+        maxExcursion = 0;
+    }
+
+    /**
+     * Gets how many times an opcode ran.
+     *
+     * @param opcode An opcode of {@link BrainProgram}.
+     * @return The number of times it ran.
+     */
+    public long getCount(int opcode) {
+        return counts[opcode];
+    }
+
+    /**
+     * Gets how many instructions ran in total.
+     */
+    public long getSteps() {
+        long steps = 0;
+        for (long count : counts)
+            steps += count;
+        return steps;
+    }
+
+    /**
+     * Gets how many times a loop jumped back to its start.
+     */
+    public long getLoopIterations() {
+        return loopIterations;
+    }
+
+    /**
+     * Gets the number of runs measured.
+     */
+    public long getRuns() {
+        return runs;
+    }
+
+    /**
+     * Gets the total time spent running in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Gets the lowest position the pointer reached, or Integer.MAX_VALUE if
+     * nothing was measured.
+     */
+    public int getMinPointer() {
+        return minPointer;
+    }
+
+    /**
+     * Gets the highest position the pointer reached, or Integer.MIN_VALUE if
+     * nothing was measured.
+     */
+    public int getMaxPointer() {
+        return maxPointer;
+    }
+
+    /**
+     * Gets the furthest the pointer moved in either direction from where its
+     * run started.
+     */
+    public long getMaxExcursion() {
+        return maxExcursion;
+    }
+
+    /**
+     * Describes every count, one per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("runs: %d, time: %.3fms%n", runs, nanos / 1e6));
+        report.append(String.format("steps: %d, loop iterations: %d%n", getSteps(), loopIterations));
+        if (runs > 0)
+            report.append(String.format("pointer: %d to %d, max excursion: %d%n", minPointer, maxPointer,
+                    maxExcursion));
+        for (int opcode = 0; opcode < counts.length; opcode++) {
+            if (counts[opcode] > 0)
+                report.append(String.format("%-7s %d%n", BrainProgram.nameOf(opcode), counts[opcode]));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,527 @@
+import java.util.Arrays;
+
+/**
+ * BrainOptimizer
+ *
+ * @author Daniel Morgan
+ * @description Rewrites a compiled {@link BrainProgram} into an equivalent but
+ *              shorter one. Runs of increments and moves are folded into single
+ *              instructions, and the following blocks are replaced outright:
+ *              <ul>
+ *              <li>Clear : [-]</li>
+ *              <li>Scan : [>] [<] [>>>] ...</li>
+ *              <li>Multiply : [->+>++<<] ..., kept as a block which runs once
+ *              as written before the multiplies do the rest of its runs</li>
+ *              </ul>
+ *              Straight runs of adds, sets, moves, input, output and clears are
+ *              then rewritten to work on cells at an offset from the pointer,
+ *              so the pointer is only moved once at the end of the run (or not
+ *              at all if it comes back to where it started). Clears of
+ *              neighbouring cells in such a run become a single zero over
+ *              every cell.
+ *              Every rewrite keeps the exact result of the original program
+ *              under the cell min, max and wrapping it is compiled for, as
+ *              long as cells hold values between their min and max (a value
+ *              larger than the whole range written with {value} or read as
+ *              input is only wrapped once, and may not match). Anything that
+ *              cannot be proven equivalent is left alone.
+ *              <p>
+ *              Moving the pointer off the tape still fails at the same cell and
+ *              after the same instructions, as a run is only rewritten if every
+ *              time it moves the pointer further than before in either
+ *              direction, the cell it moves to is used before the next move
+ *              (or is where the run leaves the pointer). The instruction using
+ *              the cell then fails in place of the move.
+ *              <p>
+ *              Every instruction written keeps the source position of the
+ *              first command it was made from, and replaced blocks take the
+ *              position of their starting block. The move ending a rewritten
+ *              run takes the position of the last move in the run.
+ */
+public class BrainOptimizer {
+    /** The minimum cell value the program is optimized for */
+    private final long cellMin;
+    /** The maximum cell value the program is optimized for */
+    private final long cellMax;
+    /** If cells wrap when they pass their min or max */
+    private final boolean doesWrapping;
+    /**
+     * How far a wrapped value moves, or 0 if wrapping can never happen because
+     * the cells span every long (or if it cannot be represented).
+     */
+    private final long period;
+
+    /** Opcodes of the program being written */
+    private int[] code;
+    /** Operands of the program being written */
+    private long[] operands;
+    /** Offsets of the program being written */
+    private int[] offsets;
+    /** The index in the program being optimized each instruction was made from */
+    private int[] sources;
+    /** Number of instructions written so far */
+    private int length;
+
+    /**
+     * Creates an optimizer for programs run with the passed cell settings.
+     *
+     * @param _cellMin      The minimum cell value.
+     * @param _cellMax      The maximum cell value.
+     * @param _doesWrapping If cells wrap when they pass their min or max.
+     */
+    public BrainOptimizer(long _cellMin, long _cellMax, boolean _doesWrapping) {
+        cellMin = _cellMin;
+        cellMax = _cellMax;
+        doesWrapping = _doesWrapping;
+        long range = cellMax - cellMin;
+        // a negative range means the subtraction overflowed
+        period = (_doesWrapping && range > 0 && !isFullRange()) ? range : 0;
+    }
+
+    /**
+     * Optimizes a program. The passed program must already have its blocks
+     * resolved and is not modified.
+     *
+     * @param program The program to optimize.
+     * @return A new program with the same behaviour.
+     */
+    public BrainProgram optimize(BrainProgram program) {
+        int[] in = program.code;
+        long[] args = program.operands;
+        code = new int[in.length];
+        operands = new long[in.length];
+        offsets = new int[in.length];
+        sources = new int[in.length];
+        length = 0;
+        int[] open = new int[16];
+        int depth = 0;
+        for (int pc = 0; pc < in.length; pc++) {
+            switch (in[pc]) {
+                case BrainProgram.ADD:
+                    add(args[pc], pc);
+                    break;
+                case BrainProgram.MOVE:
+                    move(args[pc], pc);
+                    break;
+                case BrainProgram.SBLOCK:
+                    int end = (int) args[pc];
+                    if (rewriteBlock(in, args, pc + 1, end)) {
+                        pc = end;
+                    } else {
+                        if (depth == open.length)
+                            open = Arrays.copyOf(open, depth * 2);
+                        open[depth++] = length;
+                        emit(BrainProgram.SBLOCK, 0, 0, pc);
+                    }
+                    break;
+                case BrainProgram.EBLOCK:
+                    int start = open[--depth];
+                    operands[start] = length;
+                    emit(BrainProgram.EBLOCK, start, 0, pc);
+                    break;
+                default:
+                    emit(in[pc], args[pc], 0, pc);
+                    break;
+            }
+        }
+        addressByOffset();
+        int[] lines = null;
+        int[] columns = null;
+        if (program.hasPositions()) {
+            lines = new int[length];
+            columns = new int[length];
+            for (int i = 0; i < length; i++) {
+                lines[i] = program.lines[sources[i]];
+                columns[i] = program.columns[sources[i]];
+            }
+        }
+        return new BrainProgram(Arrays.copyOf(code, length), Arrays.copyOf(operands, length),
+                Arrays.copyOf(offsets, length), lines, columns);
+    }
+
+    /**
+     * Appends an instruction to the program being written.
+     *
+     * @param source The index of the instruction it was made from.
+     */
+    private void emit(int opcode, long operand, int offset, int source) {
+        // rewritten blocks may come out longer than they went in
+        if (length == code.length) {
+            int size = Math.max(16, length * 2);
+            code = Arrays.copyOf(code, size);
+            operands = Arrays.copyOf(operands, size);
+            offsets = Arrays.copyOf(offsets, size);
+            sources = Arrays.copyOf(sources, size);
+        }
+        code[length] = opcode;
+        operands[length] = operand;
+        offsets[length] = offset;
+        sources[length] = source;
+        length++;
+    }
+
+    /**
+     * Appends an add, folding it into the add just written if possible.
+     *
+     * @param amount The amount added.
+     * @param source The index of the instruction it was made from.
+     */
+    private void add(long amount, int source) {
+        if (length > 0 && code[length - 1] == BrainProgram.ADD && canFoldAdds(operands[length - 1], amount)) {
+            // adds which cancel out are kept as an add of 0, as the cell may still need checking
+            operands[length - 1] += amount;
+        } else {
+            emit(BrainProgram.ADD, amount, 0, source);
+        }
+    }
+
+    /**
+     * Appends a move, folding it into the move just written if possible.
+     *
+     * @param distance How far the move goes.
+     * @param source   The index of the instruction it was made from.
+     */
+    private void move(long distance, int source) {
+        // moves of the same size and direction become one move of several steps, see BrainProgram#offsets
+        if (canFoldMoves(distance)) {
+            offsets[length - 1] = (int) distance;
+            operands[length - 1] += distance;
+        } else {
+            emit(BrainProgram.MOVE, distance, 0, source);
+        }
+    }
+
+    /**
+     * Checks if a move can be folded into the move just written. Only moves of
+     * the same size and direction are folded, so the folded move can still
+     * fail on the cell the first step off the tape would have. The pointer can
+     * only be off the tape at the start of the program or after a goto, so the
+     * first move after either is kept on its own, where a move starting off the
+     * tape would fail.
+     *
+     * @param distance How far the move goes.
+     * @return If the move can be folded.
+     */
+    private boolean canFoldMoves(long distance) {
+        if (length < 2 || code[length - 1] != BrainProgram.MOVE
+                || code[length - 2] == BrainProgram.GOTO)
+            return false;
+        long step = offsets[length - 1] != 0 ? offsets[length - 1] : operands[length - 1];
+        long folded = operands[length - 1] + distance;
+        return step == distance && (int) folded == folded;
+    }
+
+    /**
+     * Rewrites every straight run of instructions in the program being written
+     * to use cells at an offset from the pointer, see
+     * {@link #addressRun(int, int, int, boolean)}, and pairs the blocks again
+     * afterwards.
+     */
+    private void addressByOffset() {
+        int[] open = new int[16];
+        int depth = 0;
+        int written = 0;
+        int pc = 0;
+        while (pc < length) {
+            if (isAddressable(code[pc])) {
+                int end = pc;
+                while (end < length && isAddressable(code[end]))
+                    end++;
+                // the pointer may start off the tape at the start of the program or after a goto,
+                // so it has to be used before it moves
+                written = addressRun(pc, end, written, written == 0 || code[written - 1] == BrainProgram.GOTO);
+                pc = end;
+                continue;
+            }
+            copy(pc, written);
+            if (code[written] == BrainProgram.SBLOCK) {
+                if (depth == open.length)
+                    open = Arrays.copyOf(open, depth * 2);
+                open[depth++] = written;
+            } else if (code[written] == BrainProgram.EBLOCK) {
+                int start = open[--depth];
+                operands[start] = written;
+                operands[written] = start;
+            }
+            written++;
+            pc++;
+        }
+        length = written;
+    }
+
+    /**
+     * Checks if an instruction can be part of a run rewritten by
+     * {@link #addressRun(int, int, int, boolean)}.
+     */
+    private static boolean isAddressable(int opcode) {
+        return opcode == BrainProgram.ADD || opcode == BrainProgram.SET || opcode == BrainProgram.MOVE
+                || opcode == BrainProgram.IN || opcode == BrainProgram.OUT || opcode == BrainProgram.CLEAR;
+    }
+
+    /**
+     * Rewrites a straight run of instructions so every instruction works on
+     * the cell the pointer would have been on, followed by a single move to
+     * where the run leaves the pointer. The run is copied unchanged if it
+     * moves the pointer further than before and away again without using the
+     * cell in between, or if a move of several steps goes further than before
+     * by more than its last step, as leaving the tape there would not be
+     * noticed. Instructions are only ever written at or before where they
+     * were read from, so the program is rewritten in place.
+     *
+     * @param from      The index of the first instruction of the run.
+     * @param to        The index after the last instruction of the run.
+     * @param written   The number of instructions written before the run.
+     * @param unchecked If the pointer may be off the tape when the run starts.
+     * @return The number of instructions written after the run.
+     */
+    private int addressRun(int from, int to, int written, boolean unchecked) {
+        long offset = 0;
+        int lowest = 0;
+        int highest = 0;
+        int lastMove = -1;
+        // unchecked: if the pointer is on a cell further than it has been before which no instruction has used yet
+        for (int i = from; i < to; i++) {
+            if (code[i] != BrainProgram.MOVE) {
+                unchecked = false;
+                continue;
+            }
+            // only the instruction using the cell is checked, so a move away first would skip the check
+            if (unchecked)
+                return copyRun(from, to, written);
+            long step = offsets[i] != 0 ? offsets[i] : operands[i];
+            offset += operands[i];
+            if ((int) offset != offset)
+                return copyRun(from, to, written);
+            if (offset < lowest || offset > highest) {
+                // the cells reached by the steps before the last are never used
+                if (offset - step < lowest || offset - step > highest)
+                    return copyRun(from, to, written);
+                unchecked = true;
+                lowest = Math.min(lowest, (int) offset);
+                highest = Math.max(highest, (int) offset);
+            }
+            lastMove = i;
+        }
+        // the cell the run ends on is checked by the move at the end
+        if (lastMove < 0)
+            return copyRun(from, to, written);
+        int end = (int) offset;
+
+        // the run is written over itself, so the last move may be gone by the time the run ends
+        int moveSource = sources[lastMove];
+        int first = written;
+        offset = 0;
+        for (int i = from; i < to; i++) {
+            if (code[i] == BrainProgram.MOVE) {
+                offset += operands[i];
+            } else if (code[i] == BrainProgram.ADD && written > first && code[written - 1] == BrainProgram.ADD
+                    && offsets[written - 1] == offset && canFoldAdds(operands[written - 1], operands[i])
+                    && operands[written - 1] + operands[i] != 0) {
+                // adds to the same cell which were only kept apart by moves, kept even if they cancel out as the
+                // cell may need checking
+                operands[written - 1] += operands[i];
+            } else if (clears(i) && written > first && code[written - 1] == BrainProgram.ZERO
+                    && offset == offsets[written - 1] + operands[written - 1]) {
+                // the next cell of a run of clears
+                operands[written - 1] += Long.signum(operands[written - 1]);
+            } else if (clears(i) && written > first && clears(written - 1)
+                    && Math.abs(offset - offsets[written - 1]) == 1) {
+                // clears of neighbouring cells start a run
+                code[written - 1] = BrainProgram.ZERO;
+                operands[written - 1] = offset > offsets[written - 1] ? 2 : -2;
+            } else {
+                copy(i, written);
+                offsets[written++] = (int) offset;
+            }
+        }
+        if (end != 0) {
+            code[written] = BrainProgram.MOVE;
+            operands[written] = end;
+            offsets[written] = 0;
+            sources[written] = moveSource;
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Checks if an instruction sets its cell to 0 if it is positive, as clears
+     * do and so do sets of 0 when cells are never negative.
+     */
+    private boolean clears(int index) {
+        return code[index] == BrainProgram.CLEAR
+                || (code[index] == BrainProgram.SET && operands[index] == 0 && cellMin == 0);
+    }
+
+    /**
+     * Copies a run of instructions unchanged.
+     *
+     * @return The number of instructions written after the run.
+     */
+    private int copyRun(int from, int to, int written) {
+        for (int i = from; i < to; i++)
+            copy(i, written++);
+        return written;
+    }
+
+    /**
+     * Copies an instruction of the program being written to an earlier (or
+     * the same) index.
+     */
+    private void copy(int from, int to) {
+        code[to] = code[from];
+        operands[to] = operands[from];
+        offsets[to] = offsets[from];
+        sources[to] = sources[from];
+    }
+
+    /**
+     * Checks if the cells hold every long, in which case wrapping is the natural
+     * overflow of a long and any sequence of adds can be combined.
+     */
+    private boolean isFullRange() {
+        return cellMin == Long.MIN_VALUE && cellMax == Long.MAX_VALUE;
+    }
+
+    /**
+     * Checks if adding a and then b to a cell always gives the same result as
+     * adding a + b in one step. Each add only wraps once, so this holds for adds
+     * in the same direction which together stay within a single wrap. Cells
+     * which do not wrap fail on the first add which overflows, leaving the
+     * cell as the adds before it left it, so their adds are never combined.
+     *
+     * @param a The first amount added.
+     * @param b The second amount added.
+     * @return If the adds can be combined.
+     */
+    private boolean canFoldAdds(long a, long b) {
+        if (doesWrapping && isFullRange())
+            return true;
+        if (!doesWrapping || Long.signum(a) != Long.signum(b))
+            return false;
+        long sum = a + b;
+        // the sum overflowed
+        if (Long.signum(sum) != Long.signum(a))
+            return false;
+        return period > 0 && Math.abs(a) <= period && Math.abs(b) <= period && Math.abs(sum) <= period;
+    }
+
+    /**
+     * Attempts to replace a whole block with a clear, scan or multiply.
+     *
+     * @param in    The opcodes of the program being optimized.
+     * @param args  The operands of the program being optimized.
+     * @param start The index of the first instruction inside the block.
+     * @param end   The index of the ending block.
+     * @return If the block was replaced.
+     */
+    private boolean rewriteBlock(int[] in, long[] args, int start, int end) {
+        // only straight runs of adds and moves can be rewritten
+        for (int i = start; i < end; i++)
+            if (in[i] != BrainProgram.ADD && in[i] != BrainProgram.MOVE)
+                return false;
+        if (start == end)
+            return false;
+        // a counter reaching zero by steps of 1 needs zero to be inside the cells range
+        boolean countsDown = cellMin <= 0;
+
+        // [-]
+        if (end - start == 1 && in[start] == BrainProgram.ADD && args[start] == -1 && countsDown) {
+            emit(BrainProgram.CLEAR, 0, 0, start - 1);
+            return true;
+        }
+
+        // [>] [<<] ... every move must be the same so the scan never backtracks, and fails where its first
+        // move off the tape would, see BrainProgram#offsets
+        boolean onlyMoves = true;
+        long stride = 0;
+        for (int i = start; i < end; i++) {
+            if (in[i] != BrainProgram.MOVE || args[i] != args[start]) {
+                onlyMoves = false;
+                break;
+            }
+            stride += args[i];
+        }
+        if (onlyMoves) {
+            if (stride == 0 || (int) stride != stride)
+                return false;
+            emit(BrainProgram.SCAN, stride, end - start > 1 ? (int) args[start] : 0, start - 1);
+            return true;
+        }
+
+        // [->+>++<<] the block must return to where it started and take exactly 1 from that cell
+        if (!countsDown)
+            return false;
+        int offset = 0;
+        int counterAdds = 0;
+        int targets = 0;
+        int[] targetOffsets = new int[end - start];
+        long[] targetFactors = new long[end - start];
+        for (int i = start; i < end; i++) {
+            if (in[i] == BrainProgram.MOVE) {
+                long next = offset + args[i];
+                if ((int) next != next)
+                    return false;
+                offset = (int) next;
+            } else if (offset == 0) {
+                if (args[i] != -1 || ++counterAdds > 1)
+                    return false;
+            } else {
+                int t = 0;
+                while (t < targets && targetOffsets[t] != offset)
+                    t++;
+                if (t == targets) {
+                    targetOffsets[targets] = offset;
+                    targetFactors[targets] = args[i];
+                    targets++;
+                } else if (canFoldAdds(targetFactors[t], args[i])) {
+                    targetFactors[t] += args[i];
+                } else {
+                    return false;
+                }
+            }
+        }
+        if (offset != 0 || counterAdds != 1)
+            return false;
+        for (int t = 0; t < targets; t++)
+            if (!canMultiply(targetFactors[t]))
+                return false;
+        // the block runs once as written, so a cell off the tape fails it exactly where it would have, and every
+        // cell it uses has then been checked for the multiplies doing the rest of its runs
+        int block = length;
+        emit(BrainProgram.SBLOCK, 0, 0, start - 1);
+        for (int i = start; i < end; i++) {
+            if (in[i] == BrainProgram.MOVE)
+                move(args[i], i);
+            else
+                add(args[i], i);
+        }
+        for (int t = 0; t < targets; t++)
+            emit(BrainProgram.MUL, targetFactors[t], targetOffsets[t], start - 1);
+        emit(BrainProgram.CLEAR, 0, 0, start - 1);
+        operands[block] = length;
+        emit(BrainProgram.EBLOCK, block, 0, end);
+        return true;
+    }
+
+    /**
+     * Checks if a multiply by the passed factor can be computed in one step
+     * without the intermediate product overflowing. Cells which do not wrap
+     * may fail part way through the block, so it is only multiplied if they
+     * wrap.
+     *
+     * @param factor The amount added to the target cell every time the block runs.
+     * @return If the multiply can be used.
+     */
+    private boolean canMultiply(long factor) {
+        if (doesWrapping && isFullRange())
+            return true;
+        if (!doesWrapping || period == 0 || Math.abs(factor) > period)
+            return false;
+        if (factor == Long.MIN_VALUE || cellMin == Long.MIN_VALUE)
+            return false;
+        long bound = Math.max(Math.abs(cellMin), Math.abs(cellMax));
+        // the product and the value it is added to must both fit in a long
+        return factor == 0 || bound <= (Long.MAX_VALUE / 2) / Math.abs(factor);
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * BrainOutput
+ *
+ * @author Daniel Morgan
+ * @description The sink a {@link BrainParser} prints cells to. Characters
+ *              (encoded as UTF-8) and numbers are written straight into a
+ *              reusable byte buffer, which is only handed to the underlying
+ *              stream or channel once it is full or when {@link #flush()} is
+ *              called, so printing a cell never allocates or synchronizes.
+ *              Numbers are formatted into the buffer digit by digit rather than
+ *              through a String. Errors writing to the stream or channel are
+ *              thrown as a {@link BrainIOException}.
+ */
+public class BrainOutput {
+    /** The default size of the buffer in bytes */
+    private static final int DEFAULT_SIZE = 8192;
+    /** The most bytes a single character or number takes to write */
+    private static final int MAX_VALUE_BYTES = 20;
+
+    /** The stream bytes are written to, or null if writing to a channel */
+    private final OutputStream stream;
+    /** The channel bytes are written to, or null if writing to a stream */
+    private final WritableByteChannel channel;
+    /** Bytes waiting to be written */
+    private final byte[] buffer;
+    /** The buffer viewed as a ByteBuffer for writing to the channel */
+    private final ByteBuffer view;
+    /** The number of bytes in the buffer */
+    private int length = 0;
+    /** The number of bytes handed to the stream or channel so far */
+    private long offset = 0;
+
+    /**
+     * Creates a sink writing to a stream, such as System.out.
+     *
+     * @param _stream The stream to write to.
+     */
+    public BrainOutput(OutputStream _stream) {
+        this(_stream, null, DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a sink writing to a channel, such as a FileChannel.
+     *
+     * @param _channel The channel to write to.
+     */
+    public BrainOutput(WritableByteChannel _channel) {
+        this(null, _channel, DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a sink writing to a stream or a channel through a buffer of the
+     * passed size.
+     */
+    private BrainOutput(OutputStream _stream, WritableByteChannel _channel, int size) {
+        stream = _stream;
+        channel = _channel;
+        buffer = new byte[size];
+        view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Writes a character encoded as UTF-8. Lone surrogates are written as '?'
+     * just like {@link java.io.PrintStream} does.
+     *
+     * @param c The character to write.
+     */
+    public void writeChar(char c) {
+        if (length > buffer.length - MAX_VALUE_BYTES)
+            drain();
+        if (c < 0x80) {
+            buffer[length++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[length++] = (byte) (0xC0 | (c >> 6));
+            buffer[length++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            buffer[length++] = '?';
+        } else {
+            buffer[length++] = (byte) (0xE0 | (c >> 12));
+            buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    /**
+     * Writes a number in decimal.
+     *
+     * @param value The number to write.
+     */
+    public void writeLong(long value) {
+        if (length > buffer.length - MAX_VALUE_BYTES)
+            drain();
+        if (value < 0) {
+            buffer[length++] = '-';
+        } else {
+            // work with negative values so Long.MIN_VALUE needs no special case
+            value = -value;
+        }
+        int end = length + digits(value);
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' - value % 10);
+            value /= 10;
+        }
+        length = end;
+    }
+
+    /**
+     * Writes bytes exactly as they are, such as output printed earlier by
+     * another sink.
+     *
+     * @param bytes The bytes to write.
+     */
+    public void writeBytes(byte[] bytes) {
+        int written = 0;
+        while (written < bytes.length) {
+            if (length == buffer.length)
+                drain();
+            int count = Math.min(bytes.length - written, buffer.length - length);
+            System.arraycopy(bytes, written, buffer, length, count);
+            length += count;
+            written += count;
+        }
+    }
+
+    /**
+     * Gets the number of bytes written so far, including bytes still waiting in
+     * the buffer.
+     *
+     * @return The offset the next byte is written at.
+     */
+    public long getOffset() {
+        return offset + length;
+    }
+
+    /**
+     * Writes every buffered byte to the stream or channel and flushes it.
+     */
+    public void flush() {
+        drain();
+        try {
+            if (stream != null)
+                stream.flush();
+        } catch (IOException e) {
+            throw new BrainIOException("Error writing output: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes every buffered byte to the stream or channel, emptying the buffer.
+     */
+    private void drain() {
+        if (length == 0)
+            return;
+        try {
+            if (stream != null) {
+                stream.write(buffer, 0, length);
+            } else {
+                view.clear().limit(length);
+                while (view.hasRemaining())
+                    channel.write(view);
+            }
+            offset += length;
+        } catch (IOException e) {
+            throw new BrainIOException("Error writing output: " + e.getMessage(), e);
+        } finally {
+            length = 0;
+        }
+    }
+
+    /**
+     * Counts the decimal digits of a number which is 0 or negative.
+     */
+    private static int digits(long negative) {
+        int count = 1;
+        while (negative <= -10) {
+            negative /= 10;
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * BrainOverflowException
+ *
+ * @author Daniel Morgan
+ * @description Raised when cell wrapping is disabled and a cell would be given
+ *              a value below the cell min or above the cell max.
+ */
+public class BrainOverflowException extends BrainException {
+    private static final long serialVersionUID = 1L;
+    /** The value which did not fit in the cell */
+    private final long value;
+    /** The minimum cell value */
+    private final long cellMin;
+    /** The maximum cell value */
+    private final long cellMax;
+
+    /**
+     * Creates an error for a value outside of the cell range.
+     *
+     * @param _value   The value which did not fit.
+     * @param _cellMin The minimum cell value.
+     * @param _cellMax The maximum cell value.
+     */
+    public BrainOverflowException(long _value, long _cellMin, long _cellMax) {
+        super("The value " + _value + " is outside of the cell range " + _cellMin + " to " + _cellMax);
+        value = _value;
+        cellMin = _cellMin;
+        cellMax = _cellMax;
+    }
+
+    /**
+     * Gets the value which did not fit in the cell.
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Gets the minimum cell value.
+     */
+    public long getCellMin() {
+        return cellMin;
+    }
+
+    /**
+     * Gets the maximum cell value.
+     */
+    public long getCellMax() {
+        return cellMax;
+    }
+}
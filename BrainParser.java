@@ -1,7 +1,13 @@
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -37,12 +43,24 @@ public class BrainParser extends TuringMachine {
     // what values are prefixed with to distinguish them from commands
     private static final char VALUE_PREFIX = 'T';
     /**
-     * The scanner used for reading user input
+     * The scanner used for reading user input, or null to read through
+     * {@link #input}
      * 
-     * @see #runCommand(String, String)
+     * @see #setScanner(Scanner)
+     */
+    private Scanner scanner = null;
+    /**
+     * The source user input is read from unless a scanner is set.
+     * 
+     * @see #setInput(BrainInput)
+     */
+    private BrainInput input = new BrainInput(System.in);
+    /**
+     * The sink cells are printed to, flushed at the end of every program.
      * 
+     * @see #setOutput(BrainOutput)
      */
-    private Scanner scanner = new Scanner(System.in);
+    private BrainOutput output = new BrainOutput(System.out);
     /**
      * The max value that can be stored in a cell before it wraps (if cell wrapping is enabled) or errors.
      */
@@ -70,7 +88,8 @@ public class BrainParser extends TuringMachine {
      */
     private int tokenIndex = 0;
     /**
-     * String containing the previously run program.
+     * String containing the previously run program. Programs streamed from a
+     * file are never held as a string, so they are not recorded here.
      */
     public String previousProgram = "";
     /**
@@ -85,6 +104,60 @@ public class BrainParser extends TuringMachine {
      * boolean containing if pointer should wrap to the first cell if it goes past the last cell and vice versa
      */
     private boolean doesPointerWrapping;
+    /**
+     * boolean containing if compiled programs should be passed through the {@link BrainOptimizer}
+     */
+    private boolean doesOptimizing = true;
+    /**
+     * boolean containing if compiled programs should be run as generated JVM bytecode by {@link BrainJit}
+     */
+    private boolean doesJitCompiling;
+    /**
+     * boolean containing if the start of compiled programs should be run ahead of time by the {@link BrainEvaluator}
+     */
+    private boolean doesPrecomputing;
+    /**
+     * The most steps of a program run ahead of time when it is compiled.
+     */
+    private long precomputeSteps = 10000000;
+    /**
+     * Cache of compiled programs used by {@link #runProgram(String)}, or null to compile every run.
+     */
+    private BrainCache programCache;
+    /**
+     * The most steps a program may run for before it is stopped.
+     */
+    private long stepLimit = Long.MAX_VALUE;
+    /**
+     * The most time in milliseconds a program may run for before it is stopped, or 0 for no limit.
+     */
+    private long timeLimit = 0;
+    /**
+     * Token used to stop running programs from another thread, or null for none.
+     */
+    private BrainCancellation cancellation;
+    /**
+     * Where what executed programs do is counted, or null to not count it.
+     */
+    private BrainMetrics metrics;
+    /**
+     * Where the time spent by each part of executed programs is recorded, or null to not record it.
+     */
+    private BrainProfile profile;
+    /**
+     * The number of steps run by the last program executed.
+     */
+    private long steps = 0;
+    /**
+     * The last program executed if it was stopped by its limits, or null if it ended.
+     * 
+     * @see #checkpoint()
+     */
+    private BrainProgram stoppedProgram;
+    /**
+     * The instruction {@link #stoppedProgram} carries on from.
+     */
+    private int stoppedInstruction;
     /**
      * ArrayList of currently parsed tokens.
      */
@@ -100,6 +173,20 @@ public class BrainParser extends TuringMachine {
         setCellMin(_cellMin);
         setCellMax(_cellMax);
     }
+    /**
+     * Constructor creates a BrainParser running on an existing tape, such as a
+     * {@link MappedTape}, with the passed language standard. The tape keeps its
+     * own length rather than the one of the standard.
+     * 
+     * @see TuringMachine#TuringMachine(Tape, boolean)
+     * @param _tape The tape to run programs on.
+     */
+    public BrainParser(Tape _tape, String _languageStandard) {
+        super(_tape, false);
+        int length = _tape.length();
+        setLanguageStandard(_languageStandard);
+        setTapeLength(length);
+    }
     /**
      * Constructor creates a BrainParser with {@link TuringMachine#DEFUALT_SIZE
      * defualt} tape length and default 
@@ -134,13 +221,8 @@ public class BrainParser extends TuringMachine {
      *         stopper}]
      */
     private String scanTo(String mess, int start, char stopper) {
-        int scanIndex = start;
-        String scanned = "";
-        while (scanIndex < mess.length() && mess.charAt(scanIndex) != stopper) {
-            scanned += mess.charAt(scanIndex);
-            scanIndex++;
-        }
-        return scanned;
+        int end = mess.indexOf(stopper, start);
+        return mess.substring(Math.min(start, mess.length()), end < 0 ? mess.length() : end);
     }
 
     /**
@@ -162,9 +244,9 @@ public class BrainParser extends TuringMachine {
         // otherwise the value must be a number
         try {
             Long.parseLong(value);
-        } catch (Exception e) {
-            crash("scanValue expected a character literal {'a'} or a number {123} but found " + value
-                    + " instead. At position " + start);
+        } catch (NumberFormatException e) {
+            throw new BrainSyntaxException("scanValue expected a character literal {'a'} or a number {123} but found "
+                    + value + " instead. At position " + start);
         }
         return value;
     }
@@ -235,41 +317,195 @@ public class BrainParser extends TuringMachine {
                 }
                 progIndex++;
             }
-        } catch (Exception e) {
-            crash("Uncaught syntax error while parsing at position " + progIndex + ": " + e.getMessage());
+        } catch (BrainSyntaxException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new BrainSyntaxException("Uncaught syntax error while parsing at position " + progIndex + ": "
+                    + e.getMessage());
         }
         return tokens;
     }
 
+    /**
+     * Compiles a raw program into a {@link BrainProgram} of opcodes with
+     * pre-decoded operands. Command tokens which are not followed by a value
+     * token receive the same default value as in {@link #runCommand(String)}.
+     * 
+     * @see #parse(String)
+     * @param program A string containing a valid bp program
+     * @return The compiled program
+     * @throws BrainSyntaxException If the program is not valid.
+     */
+    public BrainProgram compile(String program) {
+        try {
+            return compile(new BrainLexer(new StringReader(program), false));
+        } catch (IOException e) {
+            // reading from a string never fails
+            throw new BrainIOException("Error reading program: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compiles a bp program straight from the passed file, reading it a block at
+     * a time rather than loading the whole source first. A .bpc file saved by
+     * {@link #precompile(File, File)} is loaded instead, without being parsed
+     * again.
+     * 
+     * @see #compile(String)
+     * @param file A File object containing a raw bp program
+     * @return The compiled program
+     * @throws BrainSyntaxException If the program is not valid.
+     * @throws BrainIOException     If the file cannot be read.
+     */
+    public BrainProgram compile(File file) {
+        // compiled programs are loaded as they are, keeping the cell settings they were compiled for
+        if (isCompiledProgram(file)) {
+            if (!file.exists())
+                throw new BrainIOException("File " + file.getName() + " does not exist.");
+            return BrainProgram.load(file);
+        }
+        checkProgramFile(file);
+        try (Reader reader = new FileReader(file)) {
+            return compile(new BrainLexer(reader, true));
+        } catch (IOException e) {
+            throw new BrainIOException("Error attempting to open file " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compiles a bp program from the passed file and saves it as a .bpc file,
+     * which later runs load straight away instead of parsing the program again.
+     * 
+     * @see BrainProgram#save(File)
+     * @param file     A File object containing a raw bp program
+     * @param compiled The .bpc file to save the compiled program to.
+     * @return The compiled program
+     * @throws BrainSyntaxException If the program is not valid.
+     * @throws BrainIOException     If either file cannot be read or written.
+     */
+    public BrainProgram precompile(File file, File compiled) {
+        BrainProgram program = compile(file);
+        program.save(compiled);
+        return program;
+    }
+
+    /**
+     * Compiles the program read by a lexer, pairing up its blocks, optimizing it
+     * and running its start ahead of time if enabled.
+     * 
+     * @param lexer The lexer reading the program.
+     * @return The compiled program
+     */
+    private BrainProgram compile(BrainLexer lexer) throws IOException {
+        BrainProgram compiled = lexer.lex();
+        resolveBlocks(compiled.code, compiled.operands, lexer);
+        if (doesOptimizing)
+            compiled = new BrainOptimizer(cellMin, cellMax, doesWrapping).optimize(compiled);
+        compiled = new BrainProgram(compiled.code, compiled.operands, compiled.offsets, compiled.lines,
+                compiled.columns, cellMin, cellMax, doesWrapping);
+        if (doesPrecomputing)
+            compiled = new BrainEvaluator(precomputeSteps).evaluate(compiled);
+        return compiled;
+    }
+
+    /**
+     * Pairs every starting block with its ending block before the program is run,
+     * storing the index of the matching block as the operand of each. This lets
+     * both ends of a block jump directly without keeping a stack while running.
+     * 
+     * @param code     The opcodes of the program.
+     * @param operands The operands of the program, block operands are overwritten.
+     * @param lexer    The lexer which read the program, for the position of errors.
+     * @throws BrainSyntaxException If a block has no matching block.
+     */
+    private void resolveBlocks(int[] code, long[] operands, BrainLexer lexer) {
+        int[] open = new int[16];
+        int depth = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            if (code[pc] == BrainProgram.SBLOCK) {
+                if (depth == open.length)
+                    open = Arrays.copyOf(open, depth * 2);
+                open[depth++] = pc;
+            } else if (code[pc] == BrainProgram.EBLOCK) {
+                if (depth == 0)
+                    throw new BrainSyntaxException("Found ending block without matching starting block.",
+                            lexer.lineOf(pc), lexer.columnOf(pc));
+                int start = open[--depth];
+                operands[start] = pc;
+                operands[pc] = start;
+            }
+        }
+        if (depth > 0)
+            throw new BrainSyntaxException("Found starting block without matching ending block.",
+                    lexer.lineOf(open[depth - 1]), lexer.columnOf(open[depth - 1]));
+    }
+
     /**
      * Runs a bp program from the passed file
      * 
      * @see #runProgram(String)
-     * @param file A File object containing a raw bp program
+     * @param file A File object containing a raw bp program, or a compiled one
+     *             saved as a .bpc file
      */
     public void runProgram(File file) {
-        String extension = "";
-        int i = file.getName().lastIndexOf('.');
-        if (i > 0) {
-            extension = file.getName().substring(i + 1);
-        }
-        if (!file.exists())
-            crash("File " + file.getName() + " does not exist.");
-        if (!(extension.equals("bp")))
-            crash("Unsupported extension, expected .bp but found " + extension);
+        // cached programs are looked up by their source, otherwise there is no need to hold it
+        if (programCache != null && !isCompiledProgram(file))
+            runProgram(readProgram(file));
+        else
+            execute(compile(file));
+    }
+
+    /**
+     * Reads a bp program from the passed file without running it
+     * 
+     * @param file A File object containing a raw bp program
+     * @return The program read from the file
+     * @throws BrainIOException If the file cannot be read.
+     */
+    public String readProgram(File file) {
+        checkProgramFile(file);
         String line = null;
-        String program = "";
+        StringBuilder program = new StringBuilder();
         try {
             BufferedReader reader = new BufferedReader(new FileReader(file));
             while ((line = reader.readLine()) != null) {
                 line = line.trim();
-                program += line;
+                program.append(line);
             }
             reader.close();
-        } catch (Exception e) {
-            crash("Error attempting to open file " + file.getName() + ": " + e.getMessage());
+        } catch (IOException e) {
+            throw new BrainIOException("Error attempting to open file " + file.getName() + ": " + e.getMessage(), e);
         }
-        runProgram(program);
+        return program.toString();
+    }
+
+    /**
+     * Checks if the passed file holds a compiled program, going by its .bpc
+     * extension.
+     * 
+     * @param file A File object containing a raw or compiled bp program
+     * @return If the file holds a compiled program.
+     */
+    private static boolean isCompiledProgram(File file) {
+        return file.getName().endsWith(".bpc");
+    }
+
+    /**
+     * Fails with a {@link BrainIOException} if the passed file does not exist or
+     * is not a .bp file.
+     * 
+     * @param file A File object which should contain a raw bp program
+     */
+    private void checkProgramFile(File file) {
+        String extension = "";
+        int i = file.getName().lastIndexOf('.');
+        if (i > 0) {
+            extension = file.getName().substring(i + 1);
+        }
+        if (!file.exists())
+            throw new BrainIOException("File " + file.getName() + " does not exist.");
+        if (!(extension.equals("bp")))
+            throw new BrainIOException("Unsupported extension, expected .bp but found " + extension);
     }
 
     /**
@@ -280,34 +516,191 @@ public class BrainParser extends TuringMachine {
      */
     public void runProgram(String program) {
         previousProgram = program;
-        tokens = parse(program);
-        for (tokenIndex = 0; tokenIndex < tokens.size(); tokenIndex++) {
-            // System.out.println(tokens.get(i));
-            if (tokenIndex < tokens.size() - 1) {
-                if (tokens.get(tokenIndex + 1).charAt(0) == VALUE_PREFIX) {
-                    runCommand(tokens.get(tokenIndex), tokens.get(tokenIndex + 1));
-                    tokenIndex++;
-                } else
-                    runCommand(tokens.get(tokenIndex));
-            } else
-                runCommand(tokens.get(tokenIndex));
+        execute(programCache != null ? programCache.get(program, this) : compile(program));
+    }
+
+    /**
+     * Runs a bp program once for every input, stepping the runs through the
+     * program together with a {@link BrainLockstep}. Every run starts from a
+     * copy of the tape and pointer of this machine, which are left as they
+     * are, and has the same settings and limits as {@link #runProgram(String)}.
+     * A run which fails does not stop the others.
+     * 
+     * @param program A valid bp program represented by a String
+     * @param inputs  Where each run reads its input from.
+     * @return The output and outcome of every run, in the same order as the
+     *         inputs.
+     */
+    public List<BrainLockstep.Result> runLockstep(String program, List<InputStream> inputs) {
+        previousProgram = program;
+        return lockstep(programCache != null ? programCache.get(program, this) : compile(program), inputs);
+    }
+
+    /**
+     * Runs a bp program from the passed file once for every input.
+     * 
+     * @see #runLockstep(String, List)
+     * @param file   A File object containing a raw bp program, or a compiled one
+     *               saved as a .bpc file
+     * @param inputs Where each run reads its input from.
+     * @return The output and outcome of every run.
+     */
+    public List<BrainLockstep.Result> runLockstep(File file, List<InputStream> inputs) {
+        if (programCache != null && !isCompiledProgram(file))
+            return runLockstep(readProgram(file), inputs);
+        return lockstep(compile(file), inputs);
+    }
+
+    /**
+     * Runs a compiled program once for every input from the tape and pointer of
+     * this machine.
+     * 
+     * @see #runLockstep(String, List)
+     */
+    private List<BrainLockstep.Result> lockstep(BrainProgram program, List<InputStream> inputs) {
+        BrainLockstep lockstep = new BrainLockstep(program, tape, pointer);
+        lockstep.setPointerSaftey(doesPointerSaftey);
+        lockstep.setPointerWrapping(doesPointerWrapping);
+        lockstep.setStepLimit(stepLimit);
+        lockstep.setTimeLimit(timeLimit);
+        lockstep.setCancellation(cancellation);
+        return lockstep.run(inputs);
+    }
+
+    /**
+     * Executes a compiled program on the tape of this machine, starting from the
+     * current position of the pointer. The program keeps the cell settings it
+     * was compiled with.
+     * 
+     * @see #compile(String)
+     * @see BrainRun#run()
+     * @param program The compiled program to execute
+     * @throws BrainException If the program fails, the pointer is left where it
+     *                        failed.
+     * @throws BrainLimitException If the program passes the step or time limit
+     *                             or is cancelled.
+     */
+    public void execute(BrainProgram program) {
+        execute(program, 0, 0);
+    }
+
+    /**
+     * Carries on with a program from a checkpoint taken with
+     * {@link #checkpoint()}, possibly by another parser in another JVM. The tape
+     * and pointer are replaced with those of the checkpoint and the input read
+     * before it is skipped, so it must be given the same input again. The step
+     * limit counts the steps run before the checkpoint.
+     * 
+     * @see BrainCheckpoint
+     * @param program    The program the checkpoint was taken from, compiled with
+     *                   the same language standard.
+     * @param checkpoint The checkpoint to carry on from.
+     * @throws BrainIOException If the checkpoint was taken from a different
+     *                          program.
+     * @throws BrainException If the program fails.
+     * @throws BrainLimitException If the program is stopped again.
+     */
+    public void resume(BrainProgram program, BrainCheckpoint checkpoint) {
+        checkpoint.check(program);
+        setTape(checkpoint.getCells());
+        pointer = checkpoint.getPointer();
+        if (checkpoint.getInputOffset() > 0) {
+            if (scanner != null)
+                throw new BrainIOException("Input read through a scanner can not be skipped");
+            input.skip(checkpoint.getInputOffset() - input.getOffset());
         }
+        execute(program, checkpoint.getInstruction(), checkpoint.getSteps());
     }
 
     /**
-     * Checks if the current cell is out of its min and max values and wraps accordingly, also checks if wrapping is enabled.
+     * Carries on with a program from the passed file from a checkpoint.
+     * 
+     * @see #resume(BrainProgram, BrainCheckpoint)
+     * @param file       A File object containing a raw bp program
+     * @param checkpoint The checkpoint to carry on from.
      */
-    private void wrap() {
-        if (doesWrapping) {
-            long curval = get();
-            if (curval < cellMin) {
-                set(cellMax+(curval-cellMin));
-            } else if (curval > cellMax) {
-                set(cellMin+(curval-cellMax));
-            }
+    public void resume(File file, BrainCheckpoint checkpoint) {
+        resume(compile(file), checkpoint);
+    }
+
+    /**
+     * Takes a checkpoint of the last program executed, which must have been
+     * stopped by its step or time limit or cancelled. The program can then be
+     * carried on from where it stopped with
+     * {@link #resume(BrainProgram, BrainCheckpoint)}.
+     * 
+     * @return The checkpoint, holding a copy of the tape.
+     * @throws IllegalStateException If the last program was not stopped by its
+     *                               limits.
+     */
+    public BrainCheckpoint checkpoint() {
+        if (stoppedProgram == null)
+            throw new IllegalStateException("Only a program stopped by its limits can be checkpointed");
+        return new BrainCheckpoint(stoppedProgram.fingerprint(), tape.toArray(), pointer, stoppedInstruction, steps,
+                scanner != null ? -1 : input.getOffset(), output.getOffset());
+    }
+
+    /**
+     * Executes a compiled program from an instruction, with some steps already
+     * run.
+     * 
+     * @see #execute(BrainProgram)
+     */
+    private void execute(BrainProgram program, int startInstruction, long startSteps) {
+        BrainRun run = new BrainRun(program, tape, scanner != null ? new BrainInput(scanner) : input, output);
+        run.setStartInstruction(startInstruction);
+        run.setStartSteps(startSteps);
+        run.setPointer(pointer);
+        run.setPointerSaftey(doesPointerSaftey);
+        run.setPointerWrapping(doesPointerWrapping);
+        run.setJitCompiling(doesJitCompiling);
+        run.setStepLimit(stepLimit);
+        run.setTimeLimit(timeLimit);
+        run.setCancellation(cancellation);
+        run.setMetrics(metrics);
+        run.setProfile(profile);
+        stoppedProgram = null;
+        try {
+            run.run();
+        } catch (BrainLimitException e) {
+            // the run stopped at the end of a loop iteration, so it carries on with the next one
+            stoppedProgram = program;
+            stoppedInstruction = e.getInstruction() + 1;
+            throw e;
+        } finally {
+            pointer = run.getPointer();
+            steps = run.getSteps();
         }
     }
 
+    /**
+     * Reads the next value from user input.
+     * 
+     * @param mode 'c' to read a character, anything else to read a number.
+     * @return The value read.
+     */
+    long readInput(long mode) {
+        // anything printed before asking for input is likely a prompt
+        output.flush();
+        BrainInput source = scanner != null ? new BrainInput(scanner) : input;
+        if (mode == 'c')
+            return source.readChar();
+        return source.readLong();
+    }
+
+    /**
+     * Prints a cell value.
+     * 
+     * @param value The value of the cell.
+     * @param mode  'c' to print as a character, anything else to print as a number.
+     */
+    void writeOutput(long value, long mode) {
+        if (mode == 'c')
+            output.writeChar((char) (value % 255));
+        else
+            output.writeLong(value);
+    }
+
     /**
      * Checks if the pointer is in an invalid position 
      */
@@ -339,15 +732,13 @@ public class BrainParser extends TuringMachine {
     public void runCommand(String command, String _value) {
         long value = convertValue(_value);
         try {
+            // values are wrapped before they are stored, as narrow cells would cut off the bits which overflowed
             if (command.equals("incr")) {
-                set(get() + value);
-                wrap();
+                set(BrainRun.wrap(get() + value, cellMin, cellMax, doesWrapping));
             } else if (command.equals("decr")) {
-                set(get() - value);
-                wrap();
+                set(BrainRun.wrap(get() - value, cellMin, cellMax, doesWrapping));
             } else if (command.equals("set")) {
-                set(value);
-                wrap();
+                set(BrainRun.wrap(value, cellMin, cellMax, doesWrapping));
             } else if (command.equals("right")) {
                 traverse((int) value);
                 wrapPointer();
@@ -363,7 +754,7 @@ public class BrainParser extends TuringMachine {
                 blocks.add(tokenIndex);
             } else if (command.equals("eblock")) {
                 if (blocks.size() == 0)
-                    crash("Found ending block without matching starting block.");
+                    throw new BrainSyntaxException("Found ending block without matching starting block.");
                 if (get() > 0) {
                     tokenIndex = blocks.get(blocks.size() - 1);
                 } else {
@@ -371,19 +762,14 @@ public class BrainParser extends TuringMachine {
                 }
                 wrapPointer();
             } else if (command.equals("in")) {
-                if (value == 'c')
-                    set(scanner.next().charAt(0));
-                else
-                    set(scanner.nextLong());
-                wrap();
+                set(BrainRun.wrap(readInput(value), cellMin, cellMax, doesWrapping));
             } else if (command.equals("out")) {
-                if (value == 'c')
-                    System.out.print((char) (get() % 255));
-                else
-                    System.out.print(get());
+                writeOutput(get(), value);
+                output.flush();
             }
-        } catch (Exception e) {
-            crash("Uncaught syntax error while running token \"" + command + "\" executing with value " + _value);
+        } catch (IndexOutOfBoundsException e) {
+            // the pointer left the tape with pointer saftey off
+            throw new BrainPointerException(getPointer(), getTapeLength());
         }
         // System.out.println(get());
     }
@@ -406,13 +792,42 @@ public class BrainParser extends TuringMachine {
     }
 
     /**
-     * Sets the the current scanner
+     * Sets the source user input is read from, replacing any scanner.
+     */
+    public void setInput(BrainInput _input) {
+        input = _input;
+        scanner = null;
+    }
+    /**
+     * Gets the source user input is read from
+     */
+    public BrainInput getInput() {
+        return input;
+    }
+    /**
+     * Sets the sink cells are printed to. Anything still buffered in the
+     * previous sink is flushed first.
+     */
+    public void setOutput(BrainOutput _output) {
+        output.flush();
+        output = _output;
+    }
+    /**
+     * Gets the sink cells are printed to
+     */
+    public BrainOutput getOutput() {
+        return output;
+    }
+    /**
+     * Sets the the current scanner, which user input is read through instead of
+     * the {@link #setInput(BrainInput) input source} until it is set to null.
      */
     public void setScanner(Scanner _scanner) {
-        _scanner = scanner;
+        scanner = _scanner;
     }
     /** 
-     * Gets a reference to the current scanner 
+     * Gets a reference to the current scanner, or null if input is read through
+     * the {@link #getInput() input source}
      */
     public Scanner getScanner() {
         return scanner;
@@ -422,12 +837,14 @@ public class BrainParser extends TuringMachine {
      */
     public void setCellMin(long newMin) {
         cellMin = newMin;
+        fitCells();
     }
     /**
      * Sets the cell min to a standard value.
      */
     public void setCellMin() {
         cellMin = 0;
+        fitCells();
     }
     /**
      * Get the current cell minimum
@@ -440,12 +857,14 @@ public class BrainParser extends TuringMachine {
      */
     public void setCellMax(long newMax) {
         cellMax = newMax;
+        fitCells();
     }
     /**
      * Sets the cell maximum to a standard value.
      */
     public void setCellMax() {
         cellMax = 255;
+        fitCells();
     }
     /**
      * Get the current cell maximum
@@ -453,6 +872,16 @@ public class BrainParser extends TuringMachine {
     public long getCellMax() {
         return cellMax;
     }
+    /**
+     * Stores the tape in the narrowest cells able to hold every value between
+     * the cell min and max. Without wrapping a cell can hold any long.
+     */
+    private void fitCells() {
+        if (doesWrapping)
+            fitTape(cellMin, cellMax);
+        else
+            fitTape(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
     /**
      * Gets the current language standard
      */
@@ -493,6 +922,7 @@ public class BrainParser extends TuringMachine {
      */
     public void setWrapping(boolean _doesWrap) {
         doesWrapping = _doesWrap;
+        fitCells();
     }
     /**
      * Gets whether cells should wrap if they reach their min or max
@@ -512,4 +942,134 @@ public class BrainParser extends TuringMachine {
     public boolean getPointerWrapping() {
         return doesPointerWrapping;
     }
+    /**
+     * Sets whether compiled programs should be optimized before they are run.
+     */
+    public void setOptimizing(boolean _doesOptimize) {
+        doesOptimizing = _doesOptimize;
+    }
+    /**
+     * Gets whether compiled programs should be optimized before they are run.
+     */
+    public boolean getOptimizing() {
+        return doesOptimizing;
+    }
+    /**
+     * Sets whether compiled programs should be run as generated JVM bytecode instead of being interpreted.
+     */
+    public void setJitCompiling(boolean _doesJitCompile) {
+        doesJitCompiling = _doesJitCompile;
+    }
+    /**
+     * Gets whether compiled programs should be run as generated JVM bytecode instead of being interpreted.
+     */
+    public boolean getJitCompiling() {
+        return doesJitCompiling;
+    }
+    /**
+     * Sets whether the start of compiled programs, up to their first input, should be run once when they are
+     * compiled so that each run of them can skip it.
+     */
+    public void setPrecomputing(boolean _doesPrecompute) {
+        doesPrecomputing = _doesPrecompute;
+    }
+    /**
+     * Gets whether the start of compiled programs should be run when they are compiled.
+     */
+    public boolean getPrecomputing() {
+        return doesPrecomputing;
+    }
+    /**
+     * Sets the most steps of a program run ahead of time when it is compiled.
+     */
+    public void setPrecomputeSteps(long _precomputeSteps) {
+        precomputeSteps = _precomputeSteps;
+    }
+    /**
+     * Gets the most steps of a program run ahead of time when it is compiled.
+     */
+    public long getPrecomputeSteps() {
+        return precomputeSteps;
+    }
+    /**
+     * Sets the cache of compiled programs used when running programs, or null to compile every run.
+     * A cache may be shared by many parsers.
+     */
+    public void setProgramCache(BrainCache _programCache) {
+        programCache = _programCache;
+    }
+    /**
+     * Gets the cache of compiled programs used when running programs.
+     */
+    public BrainCache getProgramCache() {
+        return programCache;
+    }
+    /**
+     * Sets the most steps (instructions of the compiled program) a program may run for before it is stopped.
+     */
+    public void setStepLimit(long _stepLimit) {
+        stepLimit = _stepLimit;
+    }
+    /**
+     * Gets the most steps a program may run for before it is stopped.
+     */
+    public long getStepLimit() {
+        return stepLimit;
+    }
+    /**
+     * Sets the most time in milliseconds a program may run for before it is stopped, or 0 for no limit.
+     */
+    public void setTimeLimit(long _timeLimit) {
+        timeLimit = _timeLimit;
+    }
+    /**
+     * Gets the most time in milliseconds a program may run for before it is stopped, or 0 for no limit.
+     */
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+    /**
+     * Sets the token used to stop running programs from another thread, or null for none.
+     */
+    public void setCancellation(BrainCancellation _cancellation) {
+        cancellation = _cancellation;
+    }
+    /**
+     * Gets the token used to stop running programs from another thread.
+     */
+    public BrainCancellation getCancellation() {
+        return cancellation;
+    }
+    /**
+     * Sets where what executed programs do is counted, or null to run them without counting anything.
+     * Programs are always interpreted while they are measured.
+     */
+    public void setMetrics(BrainMetrics _metrics) {
+        metrics = _metrics;
+    }
+    /**
+     * Gets where what executed programs do is counted.
+     */
+    public BrainMetrics getMetrics() {
+        return metrics;
+    }
+    /**
+     * Sets where the time spent by each line and loop of executed programs is recorded, or null to not profile
+     * them. Programs are always interpreted while they are profiled.
+     */
+    public void setProfile(BrainProfile _profile) {
+        profile = _profile;
+    }
+    /**
+     * Gets where the time spent by each line and loop of executed programs is recorded.
+     */
+    public BrainProfile getProfile() {
+        return profile;
+    }
+    /**
+     * Gets the number of steps run by the last program executed, including one which failed or was stopped.
+     */
+    public long getSteps() {
+        return steps;
+    }
 }
\ No newline at end of file
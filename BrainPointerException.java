@@ -0,0 +1,40 @@
+/**
+ * BrainPointerException
+ *
+ * @author Daniel Morgan
+ * @description Raised when the pointer is moved off the tape, or onto a cell
+ *              outside of the tape while pointer saftey is enabled.
+ */
+public class BrainPointerException extends BrainException {
+    private static final long serialVersionUID = 1L;
+    /** The invalid position of the pointer */
+    private final int position;
+    /** The length of the tape the pointer left */
+    private final int tapeLength;
+
+    /**
+     * Creates an error for the pointer reaching an invalid position.
+     *
+     * @param _position   The invalid position of the pointer.
+     * @param _tapeLength The length of the tape.
+     */
+    public BrainPointerException(int _position, int _tapeLength) {
+        super("The pointer is in an invalid position: " + _position);
+        position = _position;
+        tapeLength = _tapeLength;
+    }
+
+    /**
+     * Gets the invalid position of the pointer.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the length of the tape the pointer left.
+     */
+    public int getTapeLength() {
+        return tapeLength;
+    }
+}
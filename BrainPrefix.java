@@ -0,0 +1,158 @@
+import java.util.Arrays;
+
+/**
+ * BrainPrefix
+ *
+ * @author Daniel Morgan
+ * @description The result of running the start of a {@link BrainProgram}
+ *              ahead of time with a {@link BrainEvaluator}: the cells it
+ *              wrote, where it left the pointer, what it printed, how many
+ *              steps it took and the instruction the rest of the program
+ *              carries on from. A run starting from the beginning of the
+ *              program applies the prefix to its tape instead of running those
+ *              instructions again.
+ *              <p>
+ *              Until the program first moves the pointer with a goto, cells and
+ *              the pointer are only known relative to where the pointer started,
+ *              and afterwards they are known exactly. A prefix is only valid
+ *              for a run if every cell the prefix read before writing it is 0
+ *              on the tape of the run, and if every position the pointer reached
+ *              is on the tape, as the pointer leaving the tape depends on the
+ *              settings of the run. {@link #appliesTo(Tape, int)} checks both,
+ *              and a run for which it fails runs the whole program instead.
+ */
+public class BrainPrefix {
+    /** The instruction the rest of the program carries on from */
+    final int end;
+    /** The number of steps the prefix takes */
+    final long steps;
+    /** If the cells and pointer below are relative to where the pointer started */
+    final boolean relative;
+    /** The positions of the cells written, in the order of their values */
+    final int[] positions;
+    /** The values of the cells written */
+    final long[] values;
+    /** Where the prefix leaves the pointer */
+    final int pointer;
+    /** Cells read before being written, relative to where the pointer started, which must be 0 */
+    final int[] relativeZeros;
+    /** Cells read before being written after a goto, which must be 0 */
+    final int[] absoluteZeros;
+    /** The lowest and highest positions reached relative to where the pointer started, lowest above highest if none */
+    final int relativeMin, relativeMax;
+    /** The lowest and highest positions reached after a goto, lowest above highest if none */
+    final int absoluteMin, absoluteMax;
+    /** The bytes the prefix prints */
+    final byte[] output;
+
+    /**
+     * Creates a prefix of a program.
+     *
+     * @param _end           The instruction the rest of the program carries on
+     *                       from.
+     * @param _steps         The number of steps the prefix takes.
+     * @param _relative      If the cells and pointer are relative to where the
+     *                       pointer started.
+     * @param _positions     The positions of the cells written.
+     * @param _values        The values of the cells written.
+     * @param _pointer       Where the prefix leaves the pointer.
+     * @param _relativeZeros Cells which must be 0, relative to where the pointer
+     *                       started.
+     * @param _absoluteZeros Cells which must be 0.
+     * @param _relativeMin   The lowest relative position reached.
+     * @param _relativeMax   The highest relative position reached.
+     * @param _absoluteMin   The lowest position reached after a goto.
+     * @param _absoluteMax   The highest position reached after a goto.
+     * @param _output        The bytes the prefix prints.
+     */
+    BrainPrefix(int _end, long _steps, boolean _relative, int[] _positions, long[] _values, int _pointer,
+            int[] _relativeZeros, int[] _absoluteZeros, int _relativeMin, int _relativeMax, int _absoluteMin,
+            int _absoluteMax, byte[] _output) {
+        end = _end;
+        steps = _steps;
+        relative = _relative;
+        positions = _positions;
+        values = _values;
+        pointer = _pointer;
+        relativeZeros = _relativeZeros;
+        absoluteZeros = _absoluteZeros;
+        relativeMin = _relativeMin;
+        relativeMax = _relativeMax;
+        absoluteMin = _absoluteMin;
+        absoluteMax = _absoluteMax;
+        output = _output;
+    }
+
+    /**
+     * Checks if the prefix gives the same result as running the start of the
+     * program on the passed tape from the passed pointer.
+     *
+     * @param tape  The tape of the run.
+     * @param start The position of the pointer when the run starts.
+     * @return If the prefix can be applied in place of running it.
+     */
+    public boolean appliesTo(Tape tape, int start) {
+        int length = tape.length();
+        if (relativeMin <= relativeMax
+                && ((long) start + relativeMin < 0 || (long) start + relativeMax >= length))
+            return false;
+        if (absoluteMin <= absoluteMax && (absoluteMin < 0 || absoluteMax >= length))
+            return false;
+        for (int position : relativeZeros)
+            if (tape.get(start + position) != 0)
+                return false;
+        for (int position : absoluteZeros)
+            if (tape.get(position) != 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Writes the cells and output of the prefix, as if it had just been run.
+     *
+     * @param tape   The tape of the run.
+     * @param start  The position of the pointer when the run starts.
+     * @param target Where the output of the run is printed.
+     * @return Where the prefix leaves the pointer.
+     */
+    public int apply(Tape tape, int start, BrainOutput target) {
+        int base = relative ? start : 0;
+        for (int i = 0; i < positions.length; i++)
+            tape.set(base + positions[i], values[i]);
+        target.writeBytes(output);
+        return base + pointer;
+    }
+
+    /**
+     * Computes a hash of everything in the prefix, for checking it was stored
+     * intact.
+     *
+     * @return The hash of the prefix.
+     */
+    int hash() {
+        return Arrays.hashCode(new long[] { end, steps, relative ? 1 : 0, Arrays.hashCode(positions),
+                Arrays.hashCode(values), pointer, Arrays.hashCode(relativeZeros), Arrays.hashCode(absoluteZeros),
+                relativeMin, relativeMax, absoluteMin, absoluteMax, Arrays.hashCode(output) });
+    }
+
+    /**
+     * Gets the instruction the rest of the program carries on from.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Gets the number of steps the prefix takes.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Gets the number of bytes the prefix prints.
+     */
+    public int getOutputLength() {
+        return output.length;
+    }
+}
@@ -0,0 +1,271 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * BrainProfile
+ *
+ * @author Daniel Morgan
+ * @description Records where programs spend their time, for finding the hot
+ *              spots of a slow program. Every instruction run is counted, and
+ *              the time spent inside every loop is measured from entering it to
+ *              leaving it, both totalled by the position of the command in the
+ *              source (line and column) so instructions the optimizer made
+ *              from the same command are counted together. Blocks the
+ *              optimizer replaced outright, such as [-], are counted as
+ *              instructions at the position of their starting block.
+ *              <p>
+ *              Profiled runs are interpreted like runs with
+ *              {@link BrainMetrics}, and also read the clock every time a loop
+ *              is entered or left, so they run slower than normal. A profile
+ *              adds up every run recorded until {@link #reset()} is called, so
+ *              runs of different programs should be profiled separately. A
+ *              profile must only be used by one thread at a time.
+ */
+public class BrainProfile {
+    /** The counts of every instruction, by source position */
+    private final HashMap<Long, Spot> instructions = new HashMap<Long, Spot>();
+    /** The times of every loop, by the source position of its starting block */
+    private final HashMap<Long, Spot> loops = new HashMap<Long, Spot>();
+    /** The number of instructions run */
+    private long steps = 0;
+    /** The total time spent running in nanoseconds */
+    private long nanos = 0;
+    /** The number of runs recorded */
+    private long runs = 0;
+
+    /**
+     * Adds what a run did to the profile.
+     *
+     * @param program     The program which was run.
+     * @param hits        How many times each instruction ran.
+     * @param loopNanos   The time spent inside each loop, at the index of its
+     *                    starting block.
+     * @param loopEntries How many times each loop was entered, at the index of
+     *                    its starting block.
+     * @param _nanos      How long the run took in nanoseconds.
+     */
+    void record(BrainProgram program, long[] hits, long[] loopNanos, long[] loopEntries, long _nanos) {
+        int[] code = program.code;
+        // loops are timed including the loops inside them, their own time excludes those
+        long[] selfNanos = loopNanos.clone();
+        int[] open = new int[code.length];
+        int depth = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            steps += hits[pc];
+            if (hits[pc] > 0) {
+                Spot spot = spot(instructions, program, pc);
+                spot.count += hits[pc];
+                spot.addOpcode(code[pc]);
+            }
+            if (code[pc] == BrainProgram.SBLOCK) {
+                if (depth > 0)
+                    selfNanos[open[depth - 1]] -= loopNanos[pc];
+                open[depth++] = pc;
+            } else if (code[pc] == BrainProgram.EBLOCK) {
+                depth--;
+                if (loopEntries[open[depth]] > 0) {
+                    Spot spot = spot(loops, program, open[depth]);
+                    spot.count += hits[pc];
+                    spot.entries += loopEntries[open[depth]];
+                    spot.nanos += loopNanos[open[depth]];
+                    spot.selfNanos += selfNanos[open[depth]];
+                    spot.addOpcode(BrainProgram.SBLOCK);
+                }
+            }
+        }
+        nanos += _nanos;
+        runs++;
+    }
+
+    /**
+     * Finds the spot for the position of an instruction, adding it if it is new.
+     */
+    private static Spot spot(HashMap<Long, Spot> spots, BrainProgram program, int index) {
+        // programs without positions are profiled by instruction instead
+        long key = program.hasPositions() ? ((long) program.getLine(index) << 32) | program.getColumn(index)
+                : -1 - index;
+        Spot spot = spots.get(key);
+        if (spot == null) {
+            spot = new Spot(program.getLine(index), program.getColumn(index), index);
+            spots.put(key, spot);
+        }
+        return spot;
+    }
+
+    /**
+     * Clears everything recorded.
+     */
+    public void reset() {
+        instructions.clear();
+        loops.clear();
+        steps = 0;
+        nanos = 0;
+        runs = 0;
+    }
+
+    /**
+     * Gets every position at which instructions ran, from the most run.
+     */
+    public List<Spot> getInstructions() {
+        List<Spot> sorted = new ArrayList<Spot>(instructions.values());
+        sorted.sort((a, b) -> Long.compare(b.count, a.count));
+        return sorted;
+    }
+
+    /**
+     * Gets every loop which was entered, from the one taking the most time.
+     */
+    public List<Spot> getLoops() {
+        List<Spot> sorted = new ArrayList<Spot>(loops.values());
+        sorted.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        return sorted;
+    }
+
+    /**
+     * Gets the number of instructions run.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Gets the total time spent running in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Gets the number of runs recorded.
+     */
+    public long getRuns() {
+        return runs;
+    }
+
+    /**
+     * Describes the most expensive loops and instructions.
+     *
+     * @param limit The most loops and instructions to list.
+     * @return The report, one spot per line.
+     */
+    public String report(int limit) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Profile of %d runs: %d steps in %.3fms%n", runs, steps, nanos / 1e6));
+        List<Spot> sortedLoops = getLoops();
+        if (!sortedLoops.isEmpty())
+            report.append(String.format("Loops by time:%n"));
+        for (int i = 0; i < Math.min(limit, sortedLoops.size()); i++) {
+            Spot loop = sortedLoops.get(i);
+            report.append(String.format("  %6.2f%% %10.3fms (self %.3fms)  %s  entered %d times, %d iterations%n",
+                    percent(loop.nanos, nanos), loop.nanos / 1e6, loop.selfNanos / 1e6, loop.where(), loop.entries,
+                    loop.count));
+        }
+        List<Spot> sortedInstructions = getInstructions();
+        if (!sortedInstructions.isEmpty())
+            report.append(String.format("Instructions by count:%n"));
+        for (int i = 0; i < Math.min(limit, sortedInstructions.size()); i++) {
+            Spot instruction = sortedInstructions.get(i);
+            report.append(String.format("  %6.2f%% %12d  %s  %s%n", percent(instruction.count, steps),
+                    instruction.count, instruction.where(), instruction.opcodes));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Describes the 20 most expensive loops and instructions.
+     */
+    @Override
+    public String toString() {
+        return report(20);
+    }
+
+    /**
+     * Gets a part of a total as a percentage, or 0 if the total is 0.
+     */
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+
+    /** The cost of a position in the source */
+    public static class Spot {
+        /** The line of the command, or 0 if it is not known */
+        public final int line;
+        /** The column of the command, or 0 if it is not known */
+        public final int column;
+        /** The index of the first instruction seen at this position */
+        public final int index;
+        /** The names of the opcodes run at this position */
+        private String opcodes = "";
+        /** How many times the instructions ran, or for a loop how many iterations it ran */
+        private long count = 0;
+        /** How many times a loop was entered */
+        private long entries = 0;
+        /** The time spent inside a loop in nanoseconds */
+        private long nanos = 0;
+        /** The time spent inside a loop but outside of the loops within it in nanoseconds */
+        private long selfNanos = 0;
+
+        Spot(int _line, int _column, int _index) {
+            line = _line;
+            column = _column;
+            index = _index;
+        }
+
+        /**
+         * Adds an opcode to the names of those run at this position.
+         */
+        private void addOpcode(int opcode) {
+            String name = BrainProgram.nameOf(opcode);
+            if (opcodes.isEmpty())
+                opcodes = name;
+            else if (!(", " + opcodes + ",").contains(" " + name + ","))
+                opcodes += ", " + name;
+        }
+
+        /**
+         * Describes where this spot is in the source.
+         */
+        private String where() {
+            return line > 0 ? "line " + line + ", column " + column : "instruction " + index;
+        }
+
+        /**
+         * Gets the names of the opcodes run at this position.
+         */
+        public String getOpcodes() {
+            return opcodes;
+        }
+
+        /**
+         * Gets how many times the instructions at this position ran, or for a
+         * loop how many iterations it ran.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets how many times a loop was entered.
+         */
+        public long getEntries() {
+            return entries;
+        }
+
+        /**
+         * Gets the time spent inside a loop in nanoseconds, including the loops
+         * within it.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Gets the time spent inside a loop in nanoseconds, excluding the loops
+         * within it.
+         */
+        public long getSelfNanos() {
+            return selfNanos;
+        }
+    }
+}
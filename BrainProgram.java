@@ -0,0 +1,579 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BrainProgram
+ *
+ * @author Daniel Morgan
+ * @description A bp program compiled into a flat array of opcodes with their
+ *              operands already decoded. Produced by
+ *              {@link BrainParser#compile(String)} and run by a
+ *              {@link BrainRun} so that no token strings have to be compared or
+ *              parsed while the program runs. A program never changes once it
+ *              is compiled and records the cell settings it was compiled for,
+ *              so it can be shared between any number of runs and threads.
+ *              <p>
+ *              A compiled program can be saved as a .bpc file with
+ *              {@link #save(File)} and loaded again with {@link #load(File)},
+ *              skipping lexing, pairing blocks and optimizing. The file is a
+ *              header followed by every array of the program as little endian
+ *              numbers of a fixed width, so loading maps the file and copies
+ *              each array straight out of it:
+ *              <ul>
+ *              <li>"BPC" and a 0 byte, then the version as an int</li>
+ *              <li>flags as an int, 1 if cells wrap, 2 if positions follow and 4
+ *              if a prefix follows</li>
+ *              <li>the cell min, the cell max and the fingerprint as longs</li>
+ *              <li>the number of instructions n as an int</li>
+ *              <li>n long operands, then n int opcodes and n int offsets</li>
+ *              <li>n int lines and n int columns, if there are positions</li>
+ *              <li>the {@link BrainPrefix} of the program, if it has one</li>
+ *              </ul>
+ *              Files of earlier versions are still loaded: version 1 files
+ *              never hold a prefix, and only the mul instructions of version 1
+ *              and 2 files have offsets.
+ */
+public class BrainProgram {
+    /** Adds the operand to the current cell ("incr", and "decr" with a negated operand) */
+    public static final int ADD = 0;
+    /** Sets the current cell to the operand ("set") */
+    public static final int SET = 1;
+    /** Moves the pointer by the operand ("right", and "left" with a negated operand) */
+    public static final int MOVE = 2;
+    /** Moves the pointer to the cell at the operand ("goto") */
+    public static final int GOTO = 3;
+    /** Starts a block ("sblock"), jumps past the ending block at the operand if the current cell is not positive */
+    public static final int SBLOCK = 4;
+    /** Ends a block ("eblock"), jumps back to the starting block at the operand if the current cell is positive */
+    public static final int EBLOCK = 5;
+    /** Reads into the current cell, as a character if the operand is 'c' ("in") */
+    public static final int IN = 6;
+    /** Prints the current cell, as a character if the operand is 'c' ("out") */
+    public static final int OUT = 7;
+    /** Sets the current cell to 0 if it is positive ("[-]") */
+    public static final int CLEAR = 8;
+    /** Moves the pointer by the operand until it reaches a cell which is not positive ("[>]") */
+    public static final int SCAN = 9;
+    /**
+     * Adds the operand times the current cell to the cell at the offset, if the
+     * current cell is positive ("[->++<]")
+     */
+    public static final int MUL = 10;
+    /**
+     * Sets each of a run of cells to 0 if it is positive, starting from the cell
+     * at the offset and going up the tape for a positive operand or down for a
+     * negative one, over as many cells as the operand ("[-]>[-]>[-]")
+     */
+    public static final int ZERO = 11;
+    /** The number of opcodes, one more than the largest */
+    public static final int OPCODES = 12;
+    /** The first four bytes of every .bpc file, "BPC" and a 0 byte */
+    private static final int MAGIC = 0x42504300;
+    /** The version of the .bpc format written */
+    private static final int VERSION = 3;
+    /** The number of bytes before the operands in a .bpc file */
+    private static final int HEADER_BYTES = 40;
+    /** Flag set in a .bpc file if cells wrap */
+    private static final int WRAPS = 1;
+    /** Flag set in a .bpc file if the source position of every instruction follows */
+    private static final int POSITIONS = 2;
+    /** Flag set in a .bpc file if the start of the program was run ahead of time */
+    private static final int PREFIX = 4;
+    /** The name of every opcode, at the index of the opcode */
+    private static final String[] NAMES = { "add", "set", "move", "goto", "sblock", "eblock", "in", "out", "clear",
+            "scan", "mul", "zero" };
+
+    /** The opcode of every instruction in the program */
+    final int[] code;
+    /** The pre-decoded operand of every instruction, at the same index as its opcode */
+    final long[] operands;
+    /**
+     * The cell each instruction works on, relative to the pointer: the current
+     * cell of an add, set, in, out or clear, the target of a mul and the first
+     * cell of a zero. A move or scan holds the size of each of its steps
+     * instead, or 0 if each move is a single step, so it can fail where its
+     * first step off the tape would have
+     */
+    final int[] offsets;
+    /** The line in the source of every instruction, or null if it is not known */
+    final int[] lines;
+    /** The column in the source of every instruction, or null if it is not known */
+    final int[] columns;
+    /** The minimum cell value the program was compiled for */
+    private final long cellMin;
+    /** The maximum cell value the program was compiled for */
+    private final long cellMax;
+    /** If cells wrap when they pass their min or max */
+    private final boolean doesWrapping;
+    /** The start of the program run ahead of time, or null if it was not */
+    final BrainPrefix prefix;
+    /** The generated run methods of this program for each kind of tape, added the first time it is run by {@link BrainJit} */
+    final ConcurrentHashMap<Class<?>, MethodHandle> jitted = new ConcurrentHashMap<Class<?>, MethodHandle>();
+
+    /**
+     * Creates a program from already filled instruction arrays.
+     *
+     * @param _code     The opcodes of the program.
+     * @param _operands The operands matching each opcode.
+     */
+    BrainProgram(int[] _code, long[] _operands) {
+        this(_code, _operands, new int[_code.length]);
+    }
+
+    /**
+     * Creates a program from already filled instruction arrays.
+     *
+     * @param _code     The opcodes of the program.
+     * @param _operands The operands matching each opcode.
+     * @param _offsets  The cell offsets matching each opcode.
+     */
+    BrainProgram(int[] _code, long[] _operands, int[] _offsets) {
+        this(_code, _operands, _offsets, null, null);
+    }
+
+    /**
+     * Creates a program from already filled instruction arrays, recording where
+     * in the source each instruction came from.
+     *
+     * @param _code     The opcodes of the program.
+     * @param _operands The operands matching each opcode.
+     * @param _offsets  The cell offsets matching each opcode.
+     * @param _lines    The source line of each instruction, or null.
+     * @param _columns  The source column of each instruction, or null.
+     */
+    BrainProgram(int[] _code, long[] _operands, int[] _offsets, int[] _lines, int[] _columns) {
+        this(_code, _operands, _offsets, _lines, _columns, Long.MIN_VALUE, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Creates a program from already filled instruction arrays, to be run with
+     * the passed cell settings.
+     *
+     * @param _code         The opcodes of the program.
+     * @param _operands     The operands matching each opcode.
+     * @param _offsets      The cell offsets matching each opcode.
+     * @param _lines        The source line of each instruction, or null.
+     * @param _columns      The source column of each instruction, or null.
+     * @param _cellMin      The minimum cell value.
+     * @param _cellMax      The maximum cell value.
+     * @param _doesWrapping If cells wrap when they pass their min or max.
+     */
+    BrainProgram(int[] _code, long[] _operands, int[] _offsets, int[] _lines, int[] _columns, long _cellMin,
+            long _cellMax, boolean _doesWrapping) {
+        this(_code, _operands, _offsets, _lines, _columns, _cellMin, _cellMax, _doesWrapping, null);
+    }
+
+    /**
+     * Creates a program from already filled instruction arrays, to be run with
+     * the passed cell settings, whose start has been run ahead of time.
+     *
+     * @param _code         The opcodes of the program.
+     * @param _operands     The operands matching each opcode.
+     * @param _offsets      The cell offsets matching each opcode.
+     * @param _lines        The source line of each instruction, or null.
+     * @param _columns      The source column of each instruction, or null.
+     * @param _cellMin      The minimum cell value.
+     * @param _cellMax      The maximum cell value.
+     * @param _doesWrapping If cells wrap when they pass their min or max.
+     * @param _prefix       The start of the program run ahead of time, or null.
+     */
+    BrainProgram(int[] _code, long[] _operands, int[] _offsets, int[] _lines, int[] _columns, long _cellMin,
+            long _cellMax, boolean _doesWrapping, BrainPrefix _prefix) {
+        code = _code;
+        operands = _operands;
+        offsets = _offsets;
+        lines = _lines;
+        columns = _columns;
+        cellMin = _cellMin;
+        cellMax = _cellMax;
+        doesWrapping = _doesWrapping;
+        prefix = _prefix;
+    }
+
+    /**
+     * Gives the same program with the start of it run ahead of time.
+     *
+     * @param _prefix The start of the program run ahead of time.
+     * @return A program sharing the instructions of this one.
+     */
+    BrainProgram withPrefix(BrainPrefix _prefix) {
+        return new BrainProgram(code, operands, offsets, lines, columns, cellMin, cellMax, doesWrapping, _prefix);
+    }
+
+    /**
+     * Gets the number of instructions in the program.
+     *
+     * @return The number of instructions in the program.
+     */
+    public int length() {
+        return code.length;
+    }
+
+    /**
+     * Gets the opcode of an instruction.
+     *
+     * @param index The index of the instruction.
+     * @return The opcode at the passed index.
+     */
+    public int getOpcode(int index) {
+        return code[index];
+    }
+
+    /**
+     * Gets the operand of an instruction.
+     *
+     * @param index The index of the instruction.
+     * @return The operand at the passed index.
+     */
+    public long getOperand(int index) {
+        return operands[index];
+    }
+
+    /**
+     * Gets the cell offset of an instruction.
+     *
+     * @param index The index of the instruction.
+     * @return The offset from the pointer at the passed index.
+     */
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Gets the line in the source of the command an instruction was compiled
+     * from. Instructions made by the optimizer from several commands have the
+     * position of the first one.
+     *
+     * @param index The index of the instruction.
+     * @return The line, starting at 1, or 0 if it is not known.
+     */
+    public int getLine(int index) {
+        return lines == null ? 0 : lines[index];
+    }
+
+    /**
+     * Gets the column in the source of the command an instruction was compiled
+     * from.
+     *
+     * @param index The index of the instruction.
+     * @return The column, starting at 1, or 0 if it is not known.
+     */
+    public int getColumn(int index) {
+        return columns == null ? 0 : columns[index];
+    }
+
+    /**
+     * Checks if the source position of every instruction is known.
+     */
+    public boolean hasPositions() {
+        return lines != null;
+    }
+
+    /**
+     * Gets the name of an opcode, such as "add" or "sblock".
+     *
+     * @param opcode The opcode.
+     * @return The name of the opcode.
+     */
+    public static String nameOf(int opcode) {
+        return NAMES[opcode];
+    }
+
+    /**
+     * Computes a 64 bit hash of the instructions and cell settings of the
+     * program, which is the same for the same program compiled the same way in
+     * any JVM. Source positions are left out, as they do not change what the
+     * program does.
+     *
+     * @return The hash of the program.
+     */
+    public long fingerprint() {
+        // FNV-1a over every value making up the program
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, code.length);
+        for (int i = 0; i < code.length; i++) {
+            hash = mix(hash, code[i]);
+            hash = mix(hash, operands[i]);
+            hash = mix(hash, offsets[i]);
+        }
+        hash = mix(hash, cellMin);
+        hash = mix(hash, cellMax);
+        return mix(hash, doesWrapping ? 1 : 0);
+    }
+
+    /**
+     * Mixes every byte of a value into an FNV-1a hash.
+     */
+    private static long mix(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8)
+            hash = (hash ^ ((value >>> shift) & 0xFF)) * 0x100000001b3L;
+        return hash;
+    }
+
+    /**
+     * Writes the program in the .bpc format to a stream, leaving the stream
+     * open.
+     *
+     * @param stream The stream to write to.
+     * @throws BrainIOException If the stream can not be written to.
+     */
+    public void write(OutputStream stream) {
+        int length = code.length;
+        boolean positions = hasPositions();
+        long size = HEADER_BYTES + length * (positions ? 24L : 16L);
+        if (prefix != null)
+            size += 56L + prefix.positions.length * 12L + prefix.relativeZeros.length * 4L
+                    + prefix.absoluteZeros.length * 4L + prefix.output.length;
+        if (size > Integer.MAX_VALUE)
+            throw new BrainIOException("The program is too long to be written as a .bpc file");
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putInt((doesWrapping ? WRAPS : 0) | (positions ? POSITIONS : 0) | (prefix != null ? PREFIX : 0));
+        buffer.putLong(cellMin).putLong(cellMax).putLong(fingerprint()).putInt(length);
+        buffer.asLongBuffer().put(operands);
+        buffer.position(buffer.position() + length * 8);
+        buffer.asIntBuffer().put(code).put(offsets);
+        buffer.position(buffer.position() + length * 8);
+        if (positions) {
+            buffer.asIntBuffer().put(lines).put(columns);
+            buffer.position(buffer.position() + length * 8);
+        }
+        if (prefix != null)
+            writePrefix(buffer);
+        try {
+            stream.write(buffer.array());
+            stream.flush();
+        } catch (IOException e) {
+            throw new BrainIOException("Error writing program: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a program written by {@link #write(OutputStream)}.
+     *
+     * @param stream The stream to read from.
+     * @return The program read.
+     * @throws BrainIOException If the stream can not be read or does not hold a
+     *                          valid program.
+     */
+    public static BrainProgram read(InputStream stream) {
+        try {
+            return decode(ByteBuffer.wrap(stream.readAllBytes()));
+        } catch (IOException e) {
+            throw new BrainIOException("Error reading program: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Saves the program to a .bpc file. It is written next to the file first
+     * and then moved over it, so a program being loaded is never half written.
+     *
+     * @param file The file to save to.
+     * @throws BrainIOException If the file can not be written.
+     */
+    public void save(File file) {
+        File partial = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".part");
+        try {
+            try (OutputStream out = Files.newOutputStream(partial.toPath())) {
+                write(out);
+            }
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BrainIOException("Error saving program to " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads a program saved with {@link #save(File)} by mapping the file into
+     * memory, so it is read without going through a stream.
+     *
+     * @param file The file to load from.
+     * @return The program, with the cell settings it was compiled for.
+     * @throws BrainIOException If the file can not be read or does not hold a
+     *                          valid program.
+     */
+    public static BrainProgram load(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new BrainIOException("Program file " + file.getName() + " is too large");
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new BrainIOException("Error loading program from " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodes a program in the .bpc format, checking that it is whole and that
+     * every block jumps to its matching block so it is safe to run.
+     *
+     * @param buffer The bytes of the program.
+     * @return The program.
+     */
+    private static BrainProgram decode(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC)
+            throw new BrainIOException("Not a compiled program");
+        int version = buffer.getInt();
+        if (version < 1 || version > VERSION)
+            throw new BrainIOException("Unsupported compiled program version " + version);
+        int flags = buffer.getInt();
+        long cellMin = buffer.getLong();
+        long cellMax = buffer.getLong();
+        long fingerprint = buffer.getLong();
+        int length = buffer.getInt();
+        boolean positions = (flags & POSITIONS) != 0;
+        boolean hasPrefix = (flags & PREFIX) != 0;
+        long arrays = length * (positions ? 24L : 16L);
+        if (length < 0 || (hasPrefix ? buffer.remaining() < arrays : buffer.remaining() != arrays))
+            throw new BrainIOException("Corrupt compiled program, it is not the length it should be");
+        long[] operands = new long[length];
+        int[] code = new int[length];
+        int[] offsets = new int[length];
+        int[] lines = positions ? new int[length] : null;
+        int[] columns = positions ? new int[length] : null;
+        buffer.asLongBuffer().get(operands);
+        buffer.position(buffer.position() + length * 8);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.get(code).get(offsets);
+        if (positions)
+            ints.get(lines).get(columns);
+        buffer.position(buffer.position() + (int) (arrays - length * 8L));
+        for (int pc = 0; pc < length; pc++) {
+            if (code[pc] < 0 || code[pc] >= OPCODES)
+                throw new BrainIOException("Corrupt compiled program, unknown opcode " + code[pc]);
+            if (code[pc] == SBLOCK || code[pc] == EBLOCK) {
+                long match = operands[pc];
+                if (match < 0 || match >= length || code[(int) match] != (code[pc] == SBLOCK ? EBLOCK : SBLOCK)
+                        || operands[(int) match] != pc || (code[pc] == SBLOCK) != (match > pc))
+                    throw new BrainIOException("Corrupt compiled program, block " + pc + " has no matching block");
+            }
+        }
+        BrainProgram program = new BrainProgram(code, operands, offsets, lines, columns, cellMin, cellMax,
+                (flags & WRAPS) != 0);
+        if (program.fingerprint() != fingerprint)
+            throw new BrainIOException("Corrupt compiled program, its fingerprint does not match");
+        return hasPrefix ? program.withPrefix(readPrefix(buffer, code)) : program;
+    }
+
+    /**
+     * Writes the prefix of the program after its instructions, ending with a
+     * hash of the prefix.
+     */
+    private void writePrefix(ByteBuffer buffer) {
+        buffer.putInt(prefix.end).putLong(prefix.steps).putInt(prefix.relative ? 1 : 0).putInt(prefix.pointer);
+        buffer.putInt(prefix.relativeMin).putInt(prefix.relativeMax);
+        buffer.putInt(prefix.absoluteMin).putInt(prefix.absoluteMax);
+        buffer.putInt(prefix.positions.length);
+        for (int position : prefix.positions)
+            buffer.putInt(position);
+        for (long value : prefix.values)
+            buffer.putLong(value);
+        buffer.putInt(prefix.relativeZeros.length);
+        for (int position : prefix.relativeZeros)
+            buffer.putInt(position);
+        buffer.putInt(prefix.absoluteZeros.length);
+        for (int position : prefix.absoluteZeros)
+            buffer.putInt(position);
+        buffer.putInt(prefix.output.length).put(prefix.output);
+        buffer.putInt(prefix.hash());
+    }
+
+    /**
+     * Reads a prefix written by {@link #writePrefix(ByteBuffer)}, checking that
+     * it is intact and ends outside of every loop of the program.
+     *
+     * @param buffer The bytes following the instructions.
+     * @param code   The opcodes of the program.
+     * @return The prefix.
+     */
+    private static BrainPrefix readPrefix(ByteBuffer buffer, int[] code) {
+        try {
+            int end = buffer.getInt();
+            long steps = buffer.getLong();
+            boolean relative = buffer.getInt() != 0;
+            int pointer = buffer.getInt();
+            int relativeMin = buffer.getInt();
+            int relativeMax = buffer.getInt();
+            int absoluteMin = buffer.getInt();
+            int absoluteMax = buffer.getInt();
+            int[] positions = readInts(buffer, buffer.getInt(), 12);
+            long[] values = new long[positions.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = buffer.getLong();
+            int[] relativeZeros = readInts(buffer, buffer.getInt(), 4);
+            int[] absoluteZeros = readInts(buffer, buffer.getInt(), 4);
+            int outputLength = buffer.getInt();
+            if (outputLength < 0 || outputLength > buffer.remaining())
+                throw new BrainIOException("Corrupt compiled program, its prefix is not the length it should be");
+            byte[] output = new byte[outputLength];
+            buffer.get(output);
+            BrainPrefix prefix = new BrainPrefix(end, steps, relative, positions, values, pointer, relativeZeros,
+                    absoluteZeros, relativeMin, relativeMax, absoluteMin, absoluteMax, output);
+            if (buffer.getInt() != prefix.hash() || buffer.hasRemaining())
+                throw new BrainIOException("Corrupt compiled program, its prefix does not match");
+            int depth = 0;
+            for (int pc = 0; pc < Math.min(end, code.length); pc++)
+                depth += code[pc] == SBLOCK ? 1 : code[pc] == EBLOCK ? -1 : 0;
+            if (end < 0 || end > code.length || depth != 0)
+                throw new BrainIOException("Corrupt compiled program, its prefix ends inside a loop");
+            return prefix;
+        } catch (BufferUnderflowException e) {
+            throw new BrainIOException("Corrupt compiled program, its prefix ended unexpectedly", e);
+        }
+    }
+
+    /**
+     * Reads a count of ints, checking that the count is possible for the bytes
+     * left, each of which takes up the passed number of bytes.
+     */
+    private static int[] readInts(ByteBuffer buffer, int count, int bytesEach) {
+        if (count < 0 || (long) count * bytesEach > buffer.remaining())
+            throw new BrainIOException("Corrupt compiled program, its prefix is not the length it should be");
+        int[] ints = new int[count];
+        buffer.asIntBuffer().get(ints);
+        buffer.position(buffer.position() + count * 4);
+        return ints;
+    }
+
+    /**
+     * Gets the start of the program which was run ahead of time by a
+     * {@link BrainEvaluator}, or null if it was not.
+     */
+    public BrainPrefix getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Gets the minimum cell value the program was compiled for.
+     */
+    public long getCellMin() {
+        return cellMin;
+    }
+
+    /**
+     * Gets the maximum cell value the program was compiled for.
+     */
+    public long getCellMax() {
+        return cellMax;
+    }
+
+    /**
+     * Gets whether cells wrap when they pass their min or max.
+     */
+    public boolean getWrapping() {
+        return doesWrapping;
+    }
+}
@@ -0,0 +1,897 @@
+import java.lang.invoke.MethodHandle;
+
+/**
+ * BrainRun
+ *
+ * @author Daniel Morgan
+ * @description A single execution of a {@link BrainProgram}, holding
+ *              everything that changes while a program runs: the tape, the
+ *              pointer, and where input is read from and output is printed to.
+ *              Compiled programs are immutable and carry the cell settings they
+ *              were compiled for, so one program can be run by any number of
+ *              runs at once, each on its own tape and in its own thread. A run
+ *              itself must only be used by one thread at a time.
+ *              <p>
+ *              The tape of a run should hold every value between the cell min
+ *              and max of the program, see {@link Tape#forRange(long, long, int)}.
+ *              Errors stop the run with a {@link BrainException} describing
+ *              what went wrong, after which the pointer is left where the error
+ *              happened whenever that is known.
+ *              <p>
+ *              A run can be limited to a number of steps (instructions of the
+ *              compiled program) and an amount of time, and stopped from
+ *              another thread through a {@link BrainCancellation}. Limits are
+ *              only checked at the end of loop iterations, so straight-line code
+ *              runs at full speed and a program without loops always finishes.
+ *              Steps are counted by charging the instructions between jumps
+ *              when a jump is taken, so the count is exact without touching
+ *              every instruction.
+ *              <p>
+ *              A run stopped by its limits can be carried on later, even in
+ *              another JVM, by starting a new run on the same tape from the
+ *              first instruction of the loop it stopped in, see
+ *              {@link BrainCheckpoint}.
+ *              <p>
+ *              Runs given {@link BrainMetrics} or a {@link BrainProfile} are
+ *              interpreted by a separate loop which counts every instruction,
+ *              so runs without them pay nothing for measuring.
+ */
+public class BrainRun {
+    /** How many steps may pass between checks of the time limit and cancellation */
+    private static final long CHECK_INTERVAL = 1 << 16;
+
+    /** The program being run */
+    private final BrainProgram program;
+    /** Cells the program runs on */
+    private final Tape tape;
+    /** Where user input is read from */
+    private final BrainInput input;
+    /** Where cells are printed to */
+    private final BrainOutput output;
+    /** The minimum cell value, from the program */
+    private final long cellMin;
+    /** The maximum cell value, from the program */
+    private final long cellMax;
+    /** If cells wrap when they pass their min or max, from the program */
+    private final boolean doesWrapping;
+    /** Position of the pointer on the tape */
+    private int pointer = 0;
+    /** If the program should error on the pointer going out of the bounds of the tape */
+    private boolean doesPointerSaftey = false;
+    /** If the pointer should wrap to the other end of the tape when moved past it */
+    private boolean doesPointerWrapping = false;
+    /** If the program should be run as generated JVM bytecode */
+    private boolean doesJitCompiling = false;
+    /** The instruction the run starts from, 0 or the first instruction inside a loop, also read by generated code */
+    int startInstruction = 0;
+    /** The number of steps already run before the run starts, when carrying on from a checkpoint */
+    private long startSteps = 0;
+    /** The most steps the program may run for */
+    private long stepLimit = Long.MAX_VALUE;
+    /** The most time the program may run for in nanoseconds, or 0 for no limit */
+    private long timeLimit = 0;
+    /** The token used to stop the run from another thread, if any */
+    private BrainCancellation cancellation = null;
+    /** The time the run has to finish by, from System.nanoTime() */
+    private long deadline;
+    /** The number of steps run, updated at every check of the limits and when the run ends */
+    volatile long steps = 0;
+    /** The step count at which the limits are next checked, also read by generated code */
+    long nextCheck = Long.MAX_VALUE;
+    /** Where what the program does is counted, or null to not count it */
+    private BrainMetrics metrics = null;
+    /** Where the time spent by each part of the program is recorded, or null to not record it */
+    private BrainProfile profile = null;
+
+    /**
+     * Creates a run of a program on the passed tape, starting with the pointer on
+     * the first cell.
+     *
+     * @param _program The program to run.
+     * @param _tape    The tape to run the program on.
+     * @param _input   Where user input is read from.
+     * @param _output  Where cells are printed to.
+     */
+    public BrainRun(BrainProgram _program, Tape _tape, BrainInput _input, BrainOutput _output) {
+        program = _program;
+        tape = _tape;
+        input = _input;
+        output = _output;
+        cellMin = _program.getCellMin();
+        cellMax = _program.getCellMax();
+        doesWrapping = _program.getWrapping();
+    }
+
+    /**
+     * Runs the program from the current position of the pointer, starting at the
+     * {@link #setStartInstruction(int) start instruction}. If JIT
+     * compiling is enabled the program is run as generated JVM bytecode,
+     * otherwise the pointer and tape are held in locals for the duration of the
+     * run and every instruction is dispatched by a single switch on its opcode.
+     * If metrics or a profile are set the program is always interpreted,
+     * counting what it does. A run from the beginning of a program with a
+     * {@link BrainPrefix} starts where the prefix ends instead, if the prefix
+     * applies to the tape. Output is flushed once the program ends, even if it fails.
+     *
+     * @throws BrainPointerException  If the pointer leaves the tape.
+     * @throws BrainOverflowException If a cell leaves its range without wrapping.
+     * @throws BrainIOException       If input or output fails.
+     * @throws BrainLimitException    If the run passes a limit or is cancelled.
+     */
+    public void run() {
+        int start = startInstruction;
+        boolean measured = metrics != null || profile != null;
+        steps = startSteps;
+        deadline = System.nanoTime() + timeLimit;
+        // work done ahead of time is skipped, unless every instruction is being counted
+        BrainPrefix prefix = program.prefix;
+        if (start == 0 && prefix != null && !measured && startSteps + prefix.steps < stepLimit
+                && prefix.appliesTo(tape, pointer)) {
+            pointer = prefix.apply(tape, pointer, output);
+            steps += prefix.steps;
+            startInstruction = prefix.end;
+        }
+        nextCheck = nextCheck(steps);
+        try {
+            if (measured)
+                interpretMeasured();
+            else if (!doesJitCompiling || !runJitted())
+                interpret();
+        } finally {
+            startInstruction = start;
+            output.flush();
+        }
+    }
+
+    /**
+     * Runs the program as generated JVM bytecode.
+     *
+     * @return false if the program could not be generated, in which case nothing
+     *         was run.
+     */
+    private boolean runJitted() {
+        MethodHandle jitted = BrainJit.compile(program, this, tape);
+        if (jitted == null)
+            return false;
+        try {
+            pointer = (int) jitted.invokeExact(tape, pointer, this);
+        } catch (BrainException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new BrainException("Uncaught error while running compiled program: " + e, e);
+        }
+        return true;
+    }
+
+    /**
+     * Runs the program one instruction at a time.
+     */
+    private void interpret() {
+        final int[] code = program.code;
+        final long[] operands = program.operands;
+        final int[] offsets = program.offsets;
+        final Tape tape = this.tape;
+        final int length = tape.length();
+        // cells used away from the pointer are checked here only on tapes which accept any index
+        final boolean checksCells = doesPointerSaftey && tape.isUnbounded();
+        int p = pointer;
+        // the cell used by the instruction, at its offset from the pointer
+        int q = p;
+        int pc = startInstruction;
+        // steps run before the last jump, and the instruction the jump landed on
+        long steps = this.steps;
+        int segment = pc;
+        long nextCheck = this.nextCheck;
+        try {
+            for (; pc < code.length; pc++) {
+                switch (code[pc]) {
+                    case BrainProgram.ADD:
+                        q = p + offsets[pc];
+                        if (checksCells && (q < 0 || q >= length))
+                            outsideTape(q);
+                        tape.set(q, wrap(tape.get(q) + operands[pc]));
+                        break;
+                    case BrainProgram.SET:
+                        q = p + offsets[pc];
+                        // checked up front even on bounded tapes, so the value is not wrapped for a cell off the tape
+                        if (q < 0 || q >= length)
+                            outsideTape(q);
+                        tape.set(q, wrap(operands[pc]));
+                        break;
+                    case BrainProgram.MOVE:
+                        p += (int) operands[pc];
+                        if (p < 0 || p >= length)
+                            outsideTape(firstOutside(p, (int) operands[pc], offsets[pc], length));
+                        break;
+                    case BrainProgram.GOTO:
+                        p = gotoPointer((int) operands[pc], length);
+                        break;
+                    case BrainProgram.SBLOCK:
+                        // skip past the matching ending block
+                        if (tape.get(p) <= 0) {
+                            steps += pc + 1 - segment;
+                            pc = (int) operands[pc];
+                            segment = pc + 1;
+                        }
+                        break;
+                    case BrainProgram.EBLOCK:
+                        // return to just after the matching starting block
+                        if (tape.get(p) > 0) {
+                            steps += pc + 1 - segment;
+                            pc = (int) operands[pc];
+                            segment = pc + 1;
+                            if (steps >= nextCheck)
+                                nextCheck = checkLimits(steps, pc, p);
+                        }
+                        break;
+                    case BrainProgram.IN:
+                        q = p + offsets[pc];
+                        // checked up front even on bounded tapes, so the value is not read for a cell off the tape
+                        if (q < 0 || q >= length)
+                            outsideTape(q);
+                        tape.set(q, wrap(readInput(operands[pc])));
+                        break;
+                    case BrainProgram.OUT:
+                        q = p + offsets[pc];
+                        if (checksCells && (q < 0 || q >= length))
+                            outsideTape(q);
+                        writeOutput(tape.get(q), operands[pc]);
+                        break;
+                    case BrainProgram.CLEAR:
+                        q = p + offsets[pc];
+                        if (checksCells && (q < 0 || q >= length))
+                            outsideTape(q);
+                        if (tape.get(q) > 0)
+                            tape.set(q, 0);
+                        break;
+                    case BrainProgram.SCAN:
+                        p = scan(tape, p, (int) operands[pc], offsets[pc]);
+                        break;
+                    case BrainProgram.MUL:
+                        if (tape.get(p) > 0)
+                            multiply(tape, p + offsets[pc], operands[pc], tape.get(p));
+                        break;
+                    case BrainProgram.ZERO:
+                        zero(tape, p + offsets[pc], (int) operands[pc]);
+                        break;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // a cell at an offset from the pointer was off the tape, where the pointer would have failed moving to it
+            if (pc < code.length && code[pc] != BrainProgram.MUL && code[pc] != BrainProgram.SCAN)
+                p += offsets[pc];
+            // or a cell outside the tape was used without moving there, e.g. after a goto with pointer saftey off
+            pointer = p;
+            throw new BrainPointerException(p, length);
+        } finally {
+            // the instructions run since the last jump, including any which failed
+            this.steps = steps + Math.min(pc, code.length - 1) + 1 - segment;
+        }
+        pointer = p;
+    }
+
+    /**
+     * Runs the program one instruction at a time like {@link #interpret()},
+     * counting every instruction into the metrics and profile of the run. Loops
+     * are only timed if there is a profile.
+     */
+    private void interpretMeasured() {
+        final int[] code = program.code;
+        final long[] operands = program.operands;
+        final int[] offsets = program.offsets;
+        final Tape tape = this.tape;
+        final int length = tape.length();
+        final long[] hits = new long[code.length];
+        final boolean timesLoops = profile != null;
+        // when each loop was entered and the time spent in it, at the index of its starting block
+        final long[] loopStarts = timesLoops ? new long[code.length] : null;
+        final long[] loopNanos = timesLoops ? new long[code.length] : null;
+        final long[] loopEntries = timesLoops ? new long[code.length] : null;
+        final long start = System.nanoTime();
+        final int first = pointer;
+        final boolean checksCells = doesPointerSaftey && tape.isUnbounded();
+        int p = pointer;
+        int q = p;
+        int min = p;
+        int max = p;
+        long loopIterations = 0;
+        long steps = this.steps;
+        long nextCheck = this.nextCheck;
+        int pc = startInstruction;
+        try {
+            for (; pc < code.length; pc++) {
+                hits[pc]++;
+                steps++;
+                switch (code[pc]) {
+                    case BrainProgram.ADD:
+                        q = p + offsets[pc];
+                        if (checksCells && (q < 0 || q >= length))
+                            outsideTape(q);
+                        tape.set(q, wrap(tape.get(q) + operands[pc]));
+                        break;
+                    case BrainProgram.SET:
+                        q = p + offsets[pc];
+                        // checked up front even on bounded tapes, so the value is not wrapped for a cell off the tape
+                        if (q < 0 || q >= length)
+                            outsideTape(q);
+                        tape.set(q, wrap(operands[pc]));
+                        break;
+                    case BrainProgram.MOVE:
+                        p += (int) operands[pc];
+                        if (p < 0 || p >= length)
+                            outsideTape(firstOutside(p, (int) operands[pc], offsets[pc], length));
+                        break;
+                    case BrainProgram.GOTO:
+                        p = gotoPointer((int) operands[pc], length);
+                        break;
+                    case BrainProgram.SBLOCK:
+                        if (tape.get(p) <= 0) {
+                            pc = (int) operands[pc];
+                        } else if (timesLoops) {
+                            loopStarts[pc] = System.nanoTime();
+                            loopEntries[pc]++;
+                        }
+                        break;
+                    case BrainProgram.EBLOCK:
+                        if (tape.get(p) > 0) {
+                            pc = (int) operands[pc];
+                            loopIterations++;
+                            if (steps >= nextCheck)
+                                nextCheck = checkLimits(steps, pc, p);
+                        } else if (timesLoops) {
+                            int loop = (int) operands[pc];
+                            loopNanos[loop] += System.nanoTime() - loopStarts[loop];
+                        }
+                        break;
+                    case BrainProgram.IN:
+                        q = p + offsets[pc];
+                        // checked up front even on bounded tapes, so the value is not read for a cell off the tape
+                        if (q < 0 || q >= length)
+                            outsideTape(q);
+                        tape.set(q, wrap(readInput(operands[pc])));
+                        break;
+                    case BrainProgram.OUT:
+                        q = p + offsets[pc];
+                        if (checksCells && (q < 0 || q >= length))
+                            outsideTape(q);
+                        writeOutput(tape.get(q), operands[pc]);
+                        break;
+                    case BrainProgram.CLEAR:
+                        q = p + offsets[pc];
+                        if (checksCells && (q < 0 || q >= length))
+                            outsideTape(q);
+                        if (tape.get(q) > 0)
+                            tape.set(q, 0);
+                        break;
+                    case BrainProgram.SCAN:
+                        p = scan(tape, p, (int) operands[pc], offsets[pc]);
+                        break;
+                    case BrainProgram.MUL:
+                        if (tape.get(p) > 0)
+                            multiply(tape, p + offsets[pc], operands[pc], tape.get(p));
+                        break;
+                    case BrainProgram.ZERO: {
+                        q = p + offsets[pc];
+                        zero(tape, q, (int) operands[pc]);
+                        // the first cell is counted below with the pointer
+                        int last = q + (int) operands[pc] - Integer.signum((int) operands[pc]);
+                        if (last < min)
+                            min = last;
+                        else if (last > max)
+                            max = last;
+                        break;
+                    }
+                }
+                if (p < min)
+                    min = p;
+                else if (p > max)
+                    max = p;
+                // cells used at an offset count as reached, as the pointer moved to them before optimizing
+                if (q < min)
+                    min = q;
+                else if (q > max)
+                    max = q;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            if (pc < code.length && code[pc] != BrainProgram.MUL && code[pc] != BrainProgram.SCAN)
+                p += offsets[pc];
+            pointer = p;
+            throw new BrainPointerException(p, length);
+        } finally {
+            this.steps = steps;
+            long nanos = System.nanoTime() - start;
+            if (metrics != null) {
+                long[] counts = new long[BrainProgram.OPCODES];
+                for (int i = 0; i < code.length; i++)
+                    counts[code[i]] += hits[i];
+                metrics.record(counts, loopIterations, first, min, max, nanos);
+            }
+            if (profile != null)
+                profile.record(program, hits, loopNanos, loopEntries, nanos);
+        }
+        pointer = p;
+    }
+
+    /**
+     * Called at the end of a loop iteration once the step count reaches
+     * {@link #nextCheck}. Stops the run if it has passed one of its limits or
+     * was cancelled.
+     *
+     * @param _steps      The number of steps run so far.
+     * @param instruction The index of the instruction being run.
+     * @param position    The position of the pointer.
+     * @return The step count at which the limits should next be checked.
+     */
+    long checkLimits(long _steps, int instruction, int position) {
+        steps = _steps;
+        BrainLimitException.Reason reason = null;
+        if (_steps > stepLimit)
+            reason = BrainLimitException.Reason.STEPS;
+        else if (timeLimit > 0 && System.nanoTime() - deadline > 0)
+            reason = BrainLimitException.Reason.TIME;
+        else if (cancellation != null && cancellation.isCancelled())
+            reason = BrainLimitException.Reason.CANCELLED;
+        if (reason != null) {
+            pointer = position;
+            throw new BrainLimitException(reason, _steps, instruction, position);
+        }
+        nextCheck = nextCheck(_steps);
+        return nextCheck;
+    }
+
+    /**
+     * Gets the step count at which the limits should next be checked. The time
+     * and cancellation are only looked at every {@link #CHECK_INTERVAL} steps,
+     * while a run without them is only checked once it reaches its step limit.
+     */
+    private long nextCheck(long _steps) {
+        if (timeLimit > 0 || cancellation != null)
+            return Math.min(stepLimit, _steps + CHECK_INTERVAL);
+        return stepLimit;
+    }
+
+    /**
+     * Called after the pointer was moved off either end of the tape. Fails the
+     * run unless the tape {@link Tape#isUnbounded() accepts any index} and
+     * pointer saftey is off.
+     *
+     * @param position The position of the pointer.
+     */
+    void outsideTape(int position) {
+        if (!doesPointerSaftey && tape.isUnbounded())
+            return;
+        pointer = position;
+        throw new BrainPointerException(position, tape.length());
+    }
+
+    /**
+     * Called by a {@link BrainJit} compiled program when a cell it used turned
+     * out to be off the tape.
+     *
+     * @param position The position of the pointer.
+     * @return The exception to throw.
+     */
+    BrainPointerException leftTape(int position) {
+        pointer = position;
+        return new BrainPointerException(position, tape.length());
+    }
+
+    /**
+     * Called after a move of several steps took the pointer off either end of
+     * the tape, see {@link #outsideTape(int)}.
+     *
+     * @param destination The position the move took the pointer to.
+     * @param distance    How far the move went.
+     * @param step        The size of each step, see {@link BrainProgram#offsets}.
+     */
+    void movedOutside(int destination, int distance, int step) {
+        outsideTape(firstOutside(destination, distance, step, tape.length()));
+    }
+
+    /**
+     * Finds the first position off the tape a move passes through, which is
+     * where it would have failed if its steps had been run one at a time.
+     *
+     * @param destination The position the move takes the pointer to.
+     * @param distance    How far the move goes.
+     * @param step        The size of each step, see {@link BrainProgram#offsets}.
+     * @param length      The length of the tape.
+     * @return The first position of the move off the tape.
+     */
+    static int firstOutside(int destination, int distance, int step, int length) {
+        if (step == 0 || step == distance)
+            return destination;
+        int first = destination - distance + step;
+        if (first < 0 || first >= length)
+            return first;
+        int room = step > 0 ? length - first : first + 1;
+        return first + (room + Math.abs(step) - 1) / Math.abs(step) * step;
+    }
+
+    /**
+     * Finds where the pointer ends up when moved to a cell, wrapping it to the
+     * other end of the tape if pointer wrapping is enabled.
+     *
+     * @param position The cell the pointer is moved to.
+     * @param length   The length of the tape.
+     * @return The new position of the pointer.
+     */
+    int gotoPointer(int position, int length) {
+        if (doesPointerSaftey && (position < 0 || position >= length))
+            outsideTape(position);
+        if (doesPointerWrapping) {
+            if (position < 0)
+                return length - 1;
+            else if (position > length)
+                return 0;
+        }
+        return position;
+    }
+
+    /**
+     * Moves the pointer by a stride until it is on a cell which is not positive.
+     *
+     * @param tape     The tape being scanned.
+     * @param position The position of the pointer.
+     * @param stride   How many cells to move each time.
+     * @param step     The size of each move making up a stride, see {@link BrainProgram#offsets}.
+     * @return The new position of the pointer.
+     */
+    int scan(Tape tape, int position, int stride, int step) {
+        int length = tape.length();
+        if (position >= 0 && position < length) {
+            // the tape finds the cell itself as long as the scan stays on it
+            position = tape.scan(position, stride);
+            if (position >= 0 && position < length)
+                return position;
+            outsideTape(firstOutside(position, stride, step, length));
+        }
+        while (tape.get(position) > 0) {
+            position += stride;
+            if (position < 0 || position >= tape.length())
+                outsideTape(firstOutside(position, stride, step, tape.length()));
+        }
+        return position;
+    }
+
+    /**
+     * Sets each of a run of cells to 0 if it is positive, one after another
+     * like a run of clears moving the pointer between each.
+     *
+     * @param tape  The tape holding the cells.
+     * @param first The index of the first cell.
+     * @param count The number of cells, negative to go down the tape.
+     */
+    void zero(Tape tape, int first, int count) {
+        int step = count > 0 ? 1 : -1;
+        int last = first + count - step;
+        if (Math.min(first, last) >= 0 && Math.max(first, last) < tape.length()) {
+            tape.clear(Math.min(first, last), Math.max(first, last) + 1);
+            return;
+        }
+        for (int cell = first; cell != last + step; cell += step) {
+            if (cell < 0 || cell >= tape.length())
+                outsideTape(cell);
+            if (tape.get(cell) > 0)
+                tape.set(cell, 0);
+        }
+    }
+
+    /**
+     * Adds an amount to a cell the passed number of times.
+     *
+     * @see #wrapRepeated(long, long, long)
+     * @param tape   The tape holding the cell.
+     * @param target The index of the cell.
+     * @param amount The amount added each time.
+     * @param times  The number of times the amount is added.
+     */
+    void multiply(Tape tape, int target, long amount, long times) {
+        if (target < 0 || target >= tape.length())
+            outsideTape(target);
+        tape.set(target, wrapRepeated(tape.get(target), amount, times));
+    }
+
+    /**
+     * Reads the next value from user input.
+     *
+     * @param mode 'c' to read a character, anything else to read a number.
+     * @return The value read.
+     */
+    long readInput(long mode) {
+        // anything printed before asking for input is likely a prompt
+        output.flush();
+        if (mode == 'c')
+            return input.readChar();
+        return input.readLong();
+    }
+
+    /**
+     * Prints a cell value.
+     *
+     * @param value The value of the cell.
+     * @param mode  'c' to print as a character, anything else to print as a number.
+     */
+    void writeOutput(long value, long mode) {
+        if (mode == 'c')
+            output.writeChar((char) (value % 255));
+        else
+            output.writeLong(value);
+    }
+
+    /**
+     * Wraps a value which is about to be stored in a cell if it is out of the
+     * cells min and max values.
+     *
+     * @see #wrap(long, long, long, boolean)
+     * @param value The value to wrap.
+     * @return The value that should be stored in the cell.
+     */
+    long wrap(long value) {
+        return wrap(value, cellMin, cellMax, doesWrapping);
+    }
+
+    /**
+     * Wraps a value which is about to be stored in a cell if it is out of the
+     * cells min and max values, or fails if wrapping is disabled.
+     *
+     * @param value        The value to wrap.
+     * @param cellMin      The minimum cell value.
+     * @param cellMax      The maximum cell value.
+     * @param doesWrapping If cells wrap when they pass their min or max.
+     * @return The value that should be stored in the cell.
+     * @throws BrainOverflowException If the value is out of range and cells do
+     *                                not wrap.
+     */
+    static long wrap(long value, long cellMin, long cellMax, boolean doesWrapping) {
+        if (value < cellMin) {
+            if (doesWrapping)
+                return cellMax + (value - cellMin);
+            throw new BrainOverflowException(value, cellMin, cellMax);
+        } else if (value > cellMax) {
+            if (doesWrapping)
+                return cellMin + (value - cellMax);
+            throw new BrainOverflowException(value, cellMin, cellMax);
+        }
+        return value;
+    }
+
+    /**
+     * Gives the value of a cell after the passed amount has been added to it
+     * the passed number of times, wrapping after each add exactly as
+     * {@link #wrap(long)} would.
+     *
+     * @param value  The value of the cell before adding.
+     * @param amount The amount added each time.
+     * @param times  The number of times the amount is added.
+     * @return The value that should be stored in the cell.
+     */
+    long wrapRepeated(long value, long amount, long times) {
+        return wrapRepeated(value, amount, times, cellMin, cellMax, doesWrapping);
+    }
+
+    /**
+     * Gives the value of a cell after the passed amount has been added to it
+     * the passed number of times, wrapping after each add exactly as
+     * {@link #wrap(long, long, long, boolean)} would.
+     *
+     * @param value        The value of the cell before adding.
+     * @param amount       The amount added each time.
+     * @param times        The number of times the amount is added.
+     * @param cellMin      The minimum cell value.
+     * @param cellMax      The maximum cell value.
+     * @param doesWrapping If cells wrap when they pass their min or max.
+     * @return The value that should be stored in the cell.
+     * @throws BrainOverflowException If the value leaves the range and cells
+     *                                do not wrap.
+     */
+    static long wrapRepeated(long value, long amount, long times, long cellMin, long cellMax, boolean doesWrapping) {
+        long total = value + amount * times;
+        if (total > cellMax || total < cellMin) {
+            // the value moves in one direction, so it only passes the range if the total does
+            if (!doesWrapping)
+                throw new BrainOverflowException(total, cellMin, cellMax);
+            // every wrap moves the value by the cell range, the last wrap decides which end it lands on
+            if (total > cellMax)
+                return cellMin + 1 + Math.floorMod(total - cellMin - 1, cellMax - cellMin);
+            return cellMin + Math.floorMod(total - cellMin, cellMax - cellMin);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of steps run, counting an instruction which failed, which
+     * is exact once the run has ended.
+     * While the program is running, or if generated bytecode failed, it is the
+     * count at the last check of the limits.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Sets the instruction the run starts from, which is 0 to run the program
+     * from the beginning or the instruction after a starting block to carry on
+     * inside that loop.
+     *
+     * @param _startInstruction The index of the instruction to start from.
+     * @throws IllegalArgumentException If the instruction is not the start of
+     *                                  the program or of the body of a loop.
+     */
+    public void setStartInstruction(int _startInstruction) {
+        if (_startInstruction != 0 && (_startInstruction < 0 || _startInstruction > program.length()
+                || program.getOpcode(_startInstruction - 1) != BrainProgram.SBLOCK))
+            throw new IllegalArgumentException(
+                    "A run can only start at the beginning of the program or of a loop, not at instruction "
+                            + _startInstruction);
+        startInstruction = _startInstruction;
+    }
+
+    /**
+     * Gets the instruction the run starts from
+     */
+    public int getStartInstruction() {
+        return startInstruction;
+    }
+
+    /**
+     * Sets the number of steps already run before the run starts, which count
+     * towards the step limit
+     */
+    public void setStartSteps(long _startSteps) {
+        startSteps = _startSteps;
+    }
+
+    /**
+     * Gets the number of steps already run before the run starts
+     */
+    public long getStartSteps() {
+        return startSteps;
+    }
+
+    /**
+     * Sets the most steps the program may run for before it is stopped
+     */
+    public void setStepLimit(long _stepLimit) {
+        stepLimit = _stepLimit;
+    }
+
+    /**
+     * Gets the most steps the program may run for
+     */
+    public long getStepLimit() {
+        return stepLimit;
+    }
+
+    /**
+     * Sets the most time in milliseconds the program may run for before it is
+     * stopped, or 0 for no limit
+     */
+    public void setTimeLimit(long _timeLimit) {
+        timeLimit = _timeLimit * 1000000;
+    }
+
+    /**
+     * Gets the most time in milliseconds the program may run for, or 0 for no
+     * limit
+     */
+    public long getTimeLimit() {
+        return timeLimit / 1000000;
+    }
+
+    /**
+     * Sets the token used to stop the run from another thread, or null for none
+     */
+    public void setCancellation(BrainCancellation _cancellation) {
+        cancellation = _cancellation;
+    }
+
+    /**
+     * Gets the token used to stop the run from another thread
+     */
+    public BrainCancellation getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Sets where what the program does is counted, or null to not count it
+     */
+    public void setMetrics(BrainMetrics _metrics) {
+        metrics = _metrics;
+    }
+
+    /**
+     * Gets where what the program does is counted
+     */
+    public BrainMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets where the time spent by each part of the program is recorded, or
+     * null to not record it
+     */
+    public void setProfile(BrainProfile _profile) {
+        profile = _profile;
+    }
+
+    /**
+     * Gets where the time spent by each part of the program is recorded
+     */
+    public BrainProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Gets the program being run.
+     */
+    public BrainProgram getProgram() {
+        return program;
+    }
+
+    /**
+     * Gets the tape the program runs on.
+     */
+    public Tape getTape() {
+        return tape;
+    }
+
+    /**
+     * Sets the position of the pointer, which is where the next run starts from.
+     */
+    public void setPointer(int _pointer) {
+        pointer = _pointer;
+    }
+
+    /**
+     * Gets the position of the pointer, where the program ended or failed.
+     */
+    public int getPointer() {
+        return pointer;
+    }
+
+    /**
+     * Sets whether the pointers position should always be valid
+     */
+    public void setPointerSaftey(boolean _doesPointerSaftey) {
+        doesPointerSaftey = _doesPointerSaftey;
+    }
+
+    /**
+     * Gets whether the pointers position should always be valid
+     */
+    public boolean getPointerSaftey() {
+        return doesPointerSaftey;
+    }
+
+    /**
+     * Sets whether the pointer should wrap to the other end of the tape when it
+     * is moved past it with goto
+     */
+    public void setPointerWrapping(boolean _doesPointerWrapping) {
+        doesPointerWrapping = _doesPointerWrapping;
+    }
+
+    /**
+     * Gets whether the pointer wraps to the other end of the tape
+     */
+    public boolean getPointerWrapping() {
+        return doesPointerWrapping;
+    }
+
+    /**
+     * Sets whether the program is run as generated JVM bytecode
+     *
+     * @see BrainJit
+     */
+    public void setJitCompiling(boolean _doesJitCompiling) {
+        doesJitCompiling = _doesJitCompiling;
+    }
+
+    /**
+     * Gets whether the program is run as generated JVM bytecode
+     */
+    public boolean getJitCompiling() {
+        return doesJitCompiling;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * BrainSyntaxException
+ *
+ * @author Daniel Morgan
+ * @description Raised when a program cannot be compiled, such as a value which
+ *              is neither a character literal nor a number or a block without
+ *              a match. Carries the line and column in the source where the
+ *              problem was found, when it is known.
+ */
+public class BrainSyntaxException extends BrainException {
+    private static final long serialVersionUID = 1L;
+    /** The line of the error starting at 1, or 0 if unknown */
+    private final int line;
+    /** The column of the error starting at 1, or 0 if unknown */
+    private final int column;
+
+    /**
+     * Creates a syntax error at a position in the source.
+     *
+     * @param message What is wrong with the program.
+     * @param _line   The line of the error, starting at 1.
+     * @param _column The column of the error, starting at 1.
+     */
+    public BrainSyntaxException(String message, int _line, int _column) {
+        super(message + " At line " + _line + ", column " + _column + ".");
+        line = _line;
+        column = _column;
+    }
+
+    /**
+     * Creates a syntax error without a known position.
+     *
+     * @param message What is wrong with the program.
+     */
+    public BrainSyntaxException(String message) {
+        super(message);
+        line = 0;
+        column = 0;
+    }
+
+    /**
+     * Gets the line of the error starting at 1, or 0 if unknown.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Gets the column of the error starting at 1, or 0 if unknown.
+     */
+    public int getColumn() {
+        return column;
+    }
+}
@@ -1,4 +1,12 @@
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Main
@@ -8,8 +16,49 @@ import java.io.File;
  */
 public class Main {
     public static void main(String[] args) {
+        // you can also run every program in a directory or manifest at once
+        // e.g : java Main --batch examples extbp 8
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+        // programs which fail print why and exit with an error code
+        try {
+            // long programs can save their progress to carry on after a restart
+            // e.g : java Main --checkpoint long.ckpt long.bp extbp 60000
+            if (args.length > 0 && args[0].equals("--checkpoint"))
+                runCheckpointed(args);
+            // large programs can be compiled once to start faster every later run
+            // e.g : java Main --compile long.bp extbp, then java Main long.bpc extbp
+            else if (args.length > 0 && args[0].equals("--compile"))
+                compileProgram(args);
+            // one program can be run over many inputs at once
+            // e.g : java Main --lockstep examples/triangle.bp extbp a.in b.in c.in
+            else if (args.length > 0 && args[0].equals("--lockstep"))
+                runLockstep(args);
+            else
+                runPrograms(args);
+        } catch (BrainException e) {
+            System.out.println("[ERROR]: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the program file passed in the arguments, or the demo if there is
+     * none.
+     * 
+     * @param args The program file and optionally the language standard, after
+     *             --profile to print where the program spent its time
+     */
+    private static void runPrograms(String[] args) {
         // if you enter arguments you can run programs from a file
         // e.g : java Main examples/triangle.bp extbp
+        // add --profile first to see which lines and loops are slowest
+        // e.g : java Main --profile examples/triangle.bp extbp
+        boolean profiling = args.length > 0 && args[0].equals("--profile");
+        if (profiling)
+            args = Arrays.copyOfRange(args, 1, args.length);
         if (args.length > 0) {
             BrainParser bp = new BrainParser();
             if (args.length > 1) {
@@ -17,7 +66,15 @@ public class Main {
             } else {
                 bp.setLanguageStandard("tacobell");
             }
-            bp.runProgram(new File(args[0]));
+            BrainProfile profile = new BrainProfile();
+            if (profiling)
+                bp.setProfile(profile);
+            try {
+                bp.runProgram(new File(args[0]));
+            } finally {
+                if (profiling)
+                    System.err.print(profile);
+            }
         } else {
             // create a BrainParser instance
             // 20 cells on the tape, 0 minimum cell value, 255 maximum cell value
@@ -70,4 +127,164 @@ public class Main {
             System.out.println("We can see that language standards change the output of this program.");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs a program, saving a checkpoint of it every so often until it ends. If
+     * the checkpoint file already exists the program carries on from it instead
+     * of starting over, and once the program ends the file is deleted.
+     * 
+     * @see BrainCheckpoint
+     * @param args --checkpoint, the checkpoint file, the program file and
+     *             optionally the language standard and the milliseconds between
+     *             checkpoints
+     */
+    private static void runCheckpointed(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java Main --checkpoint <checkpoint file> <program.bp> [standard] [interval ms]");
+            return;
+        }
+        File checkpointFile = new File(args[1]);
+        BrainParser bp = new BrainParser(args.length > 3 ? args[3] : "tacobell");
+        bp.setTimeLimit(args.length > 4 ? Long.parseLong(args[4]) : 60000);
+        BrainProgram program = bp.compile(new File(args[2]));
+        BrainCheckpoint checkpoint = checkpointFile.exists() ? BrainCheckpoint.load(checkpointFile) : null;
+        while (true) {
+            try {
+                if (checkpoint == null)
+                    bp.execute(program);
+                else
+                    bp.resume(program, checkpoint);
+                break;
+            } catch (BrainLimitException e) {
+                if (e.getReason() != BrainLimitException.Reason.TIME)
+                    throw e;
+                checkpoint = bp.checkpoint();
+                checkpoint.save(checkpointFile);
+            }
+        }
+        checkpointFile.delete();
+    }
+
+    /**
+     * Compiles a program and saves it as a .bpc file next to it, or to the file
+     * passed, which can be run in place of the program without parsing it again.
+     * The start of the program up to its first input is run while compiling.
+     * 
+     * @see BrainParser#precompile(File, File)
+     * @param args --compile, the program file and optionally the language
+     *             standard and the file to save the compiled program to
+     */
+    private static void compileProgram(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java Main --compile <program.bp> [standard] [program.bpc]");
+            return;
+        }
+        File file = new File(args[1]);
+        File compiled = new File(args.length > 3 ? args[3] : args[1].replaceFirst("\\.bp$", "") + ".bpc");
+        BrainParser bp = new BrainParser(args.length > 2 ? args[2] : "tacobell");
+        // the program is run many times from the file, so anything it does before reading input is done now
+        bp.setPrecomputing(true);
+        BrainProgram program = bp.precompile(file, compiled);
+        System.out.println("Compiled " + program.length() + " instructions to " + compiled.getPath());
+        if (program.getPrefix() != null)
+            System.out.println("Ran the first " + program.getPrefix().getSteps() + " steps ahead of time");
+    }
+
+    /**
+     * Runs a program once for every input file in lockstep, writing the output
+     * for each input next to it, to the file of the same name ending in .out,
+     * and prints how each of them went.
+     * 
+     * @see BrainLockstep
+     * @param args --lockstep, the program file, the language standard and the
+     *             input files
+     */
+    private static void runLockstep(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: java Main --lockstep <program.bp> <standard> <input files...>");
+            return;
+        }
+        BrainParser bp = new BrainParser(args[2]);
+        List<InputStream> inputs = new ArrayList<InputStream>();
+        List<BrainLockstep.Result> results;
+        long start = System.nanoTime();
+        try {
+            for (int i = 3; i < args.length; i++)
+                inputs.add(new FileInputStream(args[i]));
+            results = bp.runLockstep(new File(args[1]), inputs);
+        } catch (IOException e) {
+            System.out.println("[ERROR]: Could not read input: " + e.getMessage());
+            return;
+        } finally {
+            for (InputStream input : inputs) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // nothing was written to it
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            BrainLockstep.Result result = results.get(i);
+            String path = args[i + 3];
+            File outputFile = new File(path.replaceFirst("\\.in$", "") + ".out");
+            try (OutputStream out = new FileOutputStream(outputFile)) {
+                out.write(result.output);
+            } catch (IOException e) {
+                System.out.println("[ERROR]: Could not write " + outputFile.getPath() + ": " + e.getMessage());
+            }
+            if (result.succeeded()) {
+                System.out.println("[OK] " + path + " " + result.output.length + " bytes " + result.steps + " steps");
+            } else {
+                failed++;
+                System.out.println("[FAILED] " + path + ": " + result.error.getMessage());
+            }
+        }
+        System.out.println(String.format("Ran %d inputs (%d failed) in %.3fms", results.size(), failed, elapsed / 1e6));
+    }
+
+    /**
+     * Runs a batch of programs and prints how each of them went.
+     * 
+     * @see BrainBatch
+     * @param args --batch, a directory or manifest, and optionally the language
+     *             standard, the number of threads to use and the most time in
+     *             milliseconds each program may run for
+     */
+    private static void runBatch(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java Main --batch <directory or manifest> [standard] [threads] [time limit ms]");
+            return;
+        }
+        String standard = args.length > 2 ? args[2] : "tacobell";
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        List<BrainBatch.Job> jobs;
+        try {
+            jobs = BrainBatch.readJobs(new File(args[1]));
+        } catch (IOException e) {
+            System.out.println("[ERROR]: Could not read batch " + args[1] + ": " + e.getMessage());
+            return;
+        }
+        long start = System.nanoTime();
+        BrainBatch batch = new BrainBatch(standard, threads);
+        if (args.length > 4)
+            batch.setTimeLimit(Long.parseLong(args[4]));
+        List<BrainBatch.Result> results = batch.run(jobs);
+        long elapsed = System.nanoTime() - start;
+        int failed = 0;
+        for (BrainBatch.Result result : results) {
+            String time = String.format("%.3fms", result.nanos / 1e6);
+            if (result.succeeded()) {
+                System.out.println("[OK] " + result.job.program.getPath() + " " + time + " " + result.outputBytes + " bytes "
+                        + result.steps + " steps");
+            } else {
+                failed++;
+                System.out.println("[FAILED] " + result.job.program.getPath() + " " + time + ": " + result.error);
+            }
+        }
+        System.out.println(String.format("Ran %d programs (%d failed) in %.3fms on %d threads", results.size(), failed,
+                elapsed / 1e6, threads));
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * MappedTape
+ *
+ * @author Daniel Morgan
+ * @description A {@link Tape} stored off the heap in a memory mapped file, with
+ *              every cell taking 8 bytes (little endian). The file is mapped in
+ *              chunks of at most 1GB, so tapes can use every index a pointer can
+ *              reach without the garbage collector ever seeing the cells.
+ *              Resizing the tape grows or truncates the file and maps the
+ *              changed chunks again rather than copying cells, and since the
+ *              cells live in the file, {@link #force()} is all it takes to
+ *              checkpoint the tape. Opening an existing file continues with the
+ *              cells already in it.
+ */
+public class MappedTape extends Tape implements Closeable {
+    /** log2 of the number of cells in a full chunk */
+    private static final int CHUNK_SHIFT = 27;
+    /** The number of cells in a full chunk */
+    private static final int CHUNK_CELLS = 1 << CHUNK_SHIFT;
+    /** Mask giving the index of a cell within its chunk */
+    private static final int CHUNK_MASK = CHUNK_CELLS - 1;
+    /** The number of bytes used by a cell */
+    private static final int CELL_BYTES = 8;
+
+    /** The file backing the tape */
+    private final FileChannel channel;
+    /** The mapped chunks of the file */
+    private MappedByteBuffer[] buffers = new MappedByteBuffer[0];
+    /** The mapped chunks of the file, viewed as cells */
+    private LongBuffer[] chunks = new LongBuffer[0];
+    /** The number of cells on the tape */
+    private int length;
+
+    /**
+     * Opens a tape stored in a file, creating the file if it does not exist and
+     * growing or truncating it to the passed length.
+     *
+     * @param file   The file storing the cells.
+     * @param length The length of the tape.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    public MappedTape(File file, int length) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        // map only ever truncates a tape that shrinks, and this one starts out empty
+        if (channel.size() > (long) length * CELL_BYTES)
+            channel.truncate((long) length * CELL_BYTES);
+        map(length);
+    }
+
+    /**
+     * Opens a tape previously stored in a file, keeping its length and cells.
+     *
+     * @param file The file storing the cells.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    public MappedTape(File file) throws IOException {
+        this(file, (int) Math.min(Integer.MAX_VALUE, file.length() / CELL_BYTES));
+    }
+
+    public long get(int index) {
+        return chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+    }
+
+    public void set(int index, long value) {
+        chunks[index >>> CHUNK_SHIFT].put(index & CHUNK_MASK, value);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Reads the cells a chunk at a time, copying straight out of the mapped
+     * file.
+     */
+    public void read(int index, LongBuffer values) {
+        while (values.hasRemaining()) {
+            LongBuffer chunk = chunks[index >>> CHUNK_SHIFT];
+            int offset = index & CHUNK_MASK;
+            int count = Math.min(values.remaining(), chunk.capacity() - offset);
+            values.put(values.position(), chunk, offset, count);
+            values.position(values.position() + count);
+            index += count;
+        }
+    }
+
+    /**
+     * Writes the cells a chunk at a time, copying straight into the mapped
+     * file.
+     */
+    public void write(int index, LongBuffer values) {
+        while (values.hasRemaining()) {
+            LongBuffer chunk = chunks[index >>> CHUNK_SHIFT];
+            int offset = index & CHUNK_MASK;
+            int count = Math.min(values.remaining(), chunk.capacity() - offset);
+            chunk.put(offset, values, values.position(), count);
+            values.position(values.position() + count);
+            index += count;
+        }
+    }
+
+    public void resize(int newLength) {
+        try {
+            map(newLength);
+        } catch (IOException e) {
+            throw new BrainIOException("Error mapping the tape: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Keeps the cells in the mapped file whatever range they are for, as a
+     * mapped tape always holds full longs.
+     */
+    public Tape forRange(long min, long max) {
+        return this;
+    }
+
+    /**
+     * Writes every changed cell to the file, so the file holds a complete
+     * checkpoint of the tape.
+     */
+    public void force() {
+        for (MappedByteBuffer buffer : buffers)
+            buffer.force();
+    }
+
+    /**
+     * Writes every changed cell to the file and closes it. The tape cannot be
+     * used afterwards.
+     */
+    public void close() throws IOException {
+        force();
+        buffers = new MappedByteBuffer[0];
+        chunks = new LongBuffer[0];
+        channel.close();
+    }
+
+    /**
+     * Maps the file for a tape of the passed length, keeping every chunk which
+     * is already mapped at the right size. New cells read as 0.
+     *
+     * @param newLength The length of the tape.
+     */
+    private void map(int newLength) throws IOException {
+        if (newLength < 0)
+            throw new IllegalArgumentException("Tape length cannot be negative: " + newLength);
+        int count = (int) (((long) newLength + CHUNK_CELLS - 1) >>> CHUNK_SHIFT);
+        MappedByteBuffer[] newBuffers = Arrays.copyOf(buffers, count);
+        LongBuffer[] newChunks = Arrays.copyOf(chunks, count);
+        if (newLength < length)
+            channel.truncate((long) newLength * CELL_BYTES);
+        for (int i = 0; i < count; i++) {
+            int cells = (int) Math.min(CHUNK_CELLS, newLength - (long) i * CHUNK_CELLS);
+            if (newChunks[i] != null && newChunks[i].capacity() == cells)
+                continue;
+            // mapping past the end of the file grows it, filling new cells with 0
+            newBuffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * CHUNK_CELLS * CELL_BYTES,
+                    (long) cells * CELL_BYTES);
+            newBuffers[i].order(ByteOrder.LITTLE_ENDIAN);
+            newChunks[i] = newBuffers[i].asLongBuffer();
+        }
+        buffers = newBuffers;
+        chunks = newChunks;
+        length = newLength;
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.Arrays;
+
+/**
+ * PagedTape
+ *
+ * @author Daniel Morgan
+ * @description A sparse {@link Tape} made of fixed size pages which are only
+ *              allocated once a non zero value is written to one of their
+ *              cells. Cells which have never been written read as 0, so a huge
+ *              tape costs nothing until it is used and a program touching a
+ *              few distant cells only pays for the pages holding them.
+ *              <p>
+ *              Every int is a valid index of a paged tape, so it grows in both
+ *              directions: with pointer saftey off the pointer may walk past
+ *              either end of the tape and the pages it writes to are allocated
+ *              as it goes. The length of the tape is only used for pointer
+ *              saftey and wrapping.
+ */
+public class PagedTape extends Tape {
+    /** log2 of the number of cells in a page */
+    private static final int PAGE_SHIFT = 12;
+    /** The number of cells in a page */
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    /** Mask giving the index of a cell within its page */
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    /** The number of pages needed to hold every index on one side of 0 */
+    private static final int MAX_PAGES = 1 << (31 - PAGE_SHIFT);
+
+    /** Pages of the cells from 0 upwards, null until written to */
+    private long[][] pages = new long[0][];
+    /** Pages of the cells from -1 downwards, null until written to */
+    private long[][] negativePages = new long[0][];
+    /** The number of pages allocated */
+    private int pageCount = 0;
+    /** The number of cells on the tape */
+    private int length;
+
+    /**
+     * Creates a tape of the passed length without allocating any pages.
+     *
+     * @param _length The length of the tape.
+     */
+    public PagedTape(int _length) {
+        if (_length < 0)
+            throw new IllegalArgumentException("Tape length cannot be negative: " + _length);
+        length = _length;
+    }
+
+    public long get(int index) {
+        long[][] directory = pages;
+        if (index < 0) {
+            directory = negativePages;
+            index = ~index;
+        }
+        int page = index >>> PAGE_SHIFT;
+        if (page >= directory.length || directory[page] == null)
+            return 0;
+        return directory[page][index & PAGE_MASK];
+    }
+
+    public void set(int index, long value) {
+        boolean negative = index < 0;
+        if (negative)
+            index = ~index;
+        int page = index >>> PAGE_SHIFT;
+        long[][] directory = negative ? negativePages : pages;
+        if (page >= directory.length || directory[page] == null) {
+            // writing 0 to a missing page changes nothing
+            if (value == 0)
+                return;
+            if (page >= directory.length) {
+                directory = Arrays.copyOf(directory, Math.max(page + 1, Math.min(MAX_PAGES, directory.length * 2)));
+                if (negative)
+                    negativePages = directory;
+                else
+                    pages = directory;
+            }
+            directory[page] = new long[PAGE_SIZE];
+            pageCount++;
+        }
+        directory[page][index & PAGE_MASK] = value;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Changes the length of the tape. Shrinking the tape drops every cell from
+     * the new length upwards, growing it only changes the length.
+     */
+    public void resize(int newLength) {
+        if (newLength < 0)
+            throw new IllegalArgumentException("Tape length cannot be negative: " + newLength);
+        if (newLength < length) {
+            int kept = (int) (((long) newLength + PAGE_SIZE - 1) >>> PAGE_SHIFT);
+            for (int page = kept; page < pages.length; page++)
+                if (pages[page] != null)
+                    pageCount--;
+            if (kept < pages.length)
+                pages = Arrays.copyOf(pages, kept);
+            int last = newLength >>> PAGE_SHIFT;
+            if (last < pages.length && pages[last] != null)
+                Arrays.fill(pages[last], newLength & PAGE_MASK, PAGE_SIZE, 0);
+        }
+        length = newLength;
+    }
+
+    public boolean isUnbounded() {
+        return true;
+    }
+
+    /**
+     * Keeps the cells in their pages whatever range they are for, as pages
+     * always hold full longs.
+     */
+    public Tape forRange(long min, long max) {
+        return this;
+    }
+
+    public long[] toArray() {
+        long[] values = new long[length];
+        for (int page = 0; page < pages.length && page << PAGE_SHIFT < length; page++)
+            if (pages[page] != null)
+                System.arraycopy(pages[page], 0, values, page << PAGE_SHIFT,
+                        Math.min(PAGE_SIZE, length - (page << PAGE_SHIFT)));
+        return values;
+    }
+
+    /**
+     * Statistics on the number of pages allocated, each holding
+     * {@value #PAGE_SIZE} cells.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+}
@@ -0,0 +1,592 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Tape
+ *
+ * @author Daniel Morgan
+ * @description The cells of a {@link TuringMachine}. Cells are always read and
+ *              written as longs, but the tapes nested here store them in the
+ *              narrowest primitive array able to hold every value between the
+ *              cell min and max, see {@link #forRange(long, long, int)}. A value
+ *              outside of the range a tape was chosen for is truncated to the
+ *              width of the tape when it is stored. Tapes stored elsewhere, such
+ *              as a {@link MappedTape}, extend this class directly.
+ *              <p>
+ *              Scans and clears over many cells work on the backing array of
+ *              the nested tapes directly. Tapes of bytes scan 8 cells at a
+ *              time, reading them as a single long and testing every cell of
+ *              it at once.
+ */
+public abstract class Tape {
+    /** Reads 8 cells of a byte array as a long, with the first cell in the lowest byte */
+    private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    /** Every bit of a long of bytes but the highest bit of each byte */
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    /**
+     * Gets the value of a cell.
+     *
+     * @param index The index of the cell.
+     * @return The value of the cell.
+     */
+    public abstract long get(int index);
+
+    /**
+     * Sets the value of a cell.
+     *
+     * @param index The index of the cell.
+     * @param value The new value of the cell.
+     */
+    public abstract void set(int index, long value);
+
+    /**
+     * Gets the number of cells on the tape.
+     *
+     * @return The length of the tape.
+     */
+    public abstract int length();
+
+    /**
+     * Changes the number of cells on the tape, keeping the values of the cells
+     * which remain and setting new cells to 0.
+     *
+     * @param newLength The new length of the tape.
+     */
+    public abstract void resize(int newLength);
+
+    /**
+     * Checks if every int is a valid index of the tape, rather than only 0 to
+     * length - 1. The pointer may leave such a tape when pointer saftey is off.
+     *
+     * @return If the tape accepts any index.
+     */
+    public boolean isUnbounded() {
+        return false;
+    }
+
+    /**
+     * Copies every cell of the tape into a new long array.
+     *
+     * @return An array holding the value of every cell.
+     */
+    public long[] toArray() {
+        long[] values = new long[length()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = get(i);
+        return values;
+    }
+
+    /**
+     * Sets every cell in a range to the same value.
+     *
+     * @param from  The index of the first cell, inclusive.
+     * @param to    The index of the last cell, exclusive.
+     * @param value The value to set the cells to.
+     */
+    public void fill(int from, int to, long value) {
+        for (int i = from; i < to; i++)
+            set(i, value);
+    }
+
+    /**
+     * Sets every positive cell in a range to 0, leaving the others as they are.
+     *
+     * @param from The index of the first cell, inclusive.
+     * @param to   The index of the last cell, exclusive.
+     */
+    public void clear(int from, int to) {
+        for (int i = from; i < to; i++)
+            if (get(i) > 0)
+                set(i, 0);
+    }
+
+    /**
+     * Finds the first cell which is not positive, starting from the passed
+     * cell and moving by the stride, without leaving the tape.
+     *
+     * @param index  The index of the first cell looked at.
+     * @param stride How many cells to move each step.
+     * @return The index of the cell found, or the first index reached which is
+     *         off the tape.
+     */
+    public int scan(int index, int stride) {
+        int length = length();
+        while (index >= 0 && index < length && get(index) > 0)
+            index += stride;
+        return index;
+    }
+
+    /**
+     * Copies a range of cells to another place on the tape. The ranges may
+     * overlap, in which case the cells are copied as if through a temporary
+     * copy, like {@link System#arraycopy}.
+     *
+     * @param from  The index of the first cell to copy.
+     * @param to    The index of the first cell to copy it to.
+     * @param count The number of cells to copy.
+     */
+    public void copy(int from, int to, int count) {
+        if (to > from) {
+            for (int i = count - 1; i >= 0; i--)
+                set(to + i, get(from + i));
+        } else {
+            for (int i = 0; i < count; i++)
+                set(to + i, get(from + i));
+        }
+    }
+
+    /**
+     * Reads cells into a buffer, from the passed index until the buffer is
+     * full. The position of the buffer is moved past the values read.
+     *
+     * @param index  The index of the first cell to read.
+     * @param values The buffer to read the cells into.
+     */
+    public void read(int index, LongBuffer values) {
+        while (values.hasRemaining())
+            values.put(get(index++));
+    }
+
+    /**
+     * Writes the remaining values of a buffer to the cells from the passed
+     * index. The position of the buffer is moved past the values written.
+     *
+     * @param index  The index of the first cell to write.
+     * @param values The values to write.
+     */
+    public void write(int index, LongBuffer values) {
+        while (values.hasRemaining())
+            set(index++, values.get());
+    }
+
+    /**
+     * Overwrites the tape with the passed values, resizing it to fit them.
+     *
+     * @param values The new values of the cells.
+     */
+    public void load(long[] values) {
+        resize(values.length);
+        for (int i = 0; i < values.length; i++)
+            set(i, values[i]);
+    }
+
+    /**
+     * Creates the narrowest tape able to hold every value from min to max.
+     *
+     * @param min    The smallest value a cell will hold.
+     * @param max    The largest value a cell will hold.
+     * @param length The length of the tape.
+     * @return A new tape with every cell set to 0.
+     */
+    public static Tape forRange(long min, long max, int length) {
+        if (min >= 0 && max <= 0xFF)
+            return new UnsignedBytes(length);
+        if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE)
+            return new Bytes(length);
+        if (min >= Character.MIN_VALUE && max <= Character.MAX_VALUE)
+            return new Chars(length);
+        if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE)
+            return new Shorts(length);
+        if (min >= 0 && max <= 0xFFFFFFFFL)
+            return new UnsignedInts(length);
+        if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE)
+            return new Ints(length);
+        return new Longs(length);
+    }
+
+    /**
+     * Gives a tape for the passed range holding the same values as this one,
+     * which is this tape itself if it is already the right kind.
+     *
+     * @param min The smallest value a cell will hold.
+     * @param max The largest value a cell will hold.
+     * @return A tape for the range.
+     */
+    public Tape forRange(long min, long max) {
+        Tape fitted = forRange(min, max, 0);
+        if (fitted.getClass() == getClass())
+            return this;
+        fitted.load(toArray());
+        return fitted;
+    }
+
+    /**
+     * Scans a byte array like {@link #scan(int, int)}, testing 8 cells at a time
+     * while the stride is a factor of 8.
+     *
+     * @param cells  The cells of the tape.
+     * @param index  The index of the first cell looked at.
+     * @param stride How many cells to move each step.
+     * @param signed If the cells are signed, so negative cells stop the scan as
+     *               well as zeros.
+     * @return The index of the cell found, or the first index reached which is
+     *         off the tape.
+     */
+    static int scanBytes(byte[] cells, int index, int stride, boolean signed) {
+        int step = Math.abs(stride);
+        if (step == 1 || step == 2 || step == 4 || step == 8) {
+            // the highest bit of every byte of a word which is a cell the scan visits
+            long lanes = 0;
+            for (int lane = 0; lane < 8; lane += step)
+                lanes |= 0x80L << (lane * 8);
+            if (stride > 0) {
+                while (index >= 0 && index <= cells.length - 8) {
+                    long found = stops((long) WORDS.get(cells, index), signed) & lanes;
+                    if (found != 0)
+                        return index + (Long.numberOfTrailingZeros(found) >>> 3);
+                    index += 8;
+                }
+            } else {
+                // the word ends at the cell the scan is on, so its cells are the highest bytes
+                lanes <<= (step - 1) * 8;
+                while (index >= 7 && index < cells.length) {
+                    long found = stops((long) WORDS.get(cells, index - 7), signed) & lanes;
+                    if (found != 0)
+                        return index - 7 + ((63 - Long.numberOfLeadingZeros(found)) >>> 3);
+                    index -= 8;
+                }
+            }
+        }
+        while (index >= 0 && index < cells.length && (signed ? cells[index] > 0 : cells[index] != 0))
+            index += stride;
+        return index;
+    }
+
+    /**
+     * Finds the bytes of a long which are 0, or also negative if signed.
+     *
+     * @return The long with the highest bit set in every byte found, and every
+     *         other bit clear.
+     */
+    private static long stops(long word, boolean signed) {
+        // adding 0x7F to the low bits of a byte carries into its highest bit unless they are all 0
+        long zeros = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+        return signed ? zeros | (word & ~LOW_BITS) : zeros;
+    }
+
+    /** Cells from 0 to 255 stored in a byte array */
+    static final class UnsignedBytes extends Tape {
+        byte[] cells;
+
+        UnsignedBytes(int length) {
+            cells = new byte[length];
+        }
+
+        public long get(int index) {
+            return cells[index] & 0xFF;
+        }
+
+        public void set(int index, long value) {
+            cells[index] = (byte) value;
+        }
+
+        public int length() {
+            return cells.length;
+        }
+
+        public void resize(int newLength) {
+            cells = Arrays.copyOf(cells, newLength);
+        }
+
+        public void fill(int from, int to, long value) {
+            Arrays.fill(cells, from, to, (byte) value);
+        }
+
+        public void clear(int from, int to) {
+            Arrays.fill(cells, from, to, (byte) 0);
+        }
+
+        public int scan(int index, int stride) {
+            return scanBytes(cells, index, stride, false);
+        }
+
+        public void copy(int from, int to, int count) {
+            System.arraycopy(cells, from, cells, to, count);
+        }
+    }
+
+    /** Cells from -128 to 127 stored in a byte array */
+    static final class Bytes extends Tape {
+        byte[] cells;
+
+        Bytes(int length) {
+            cells = new byte[length];
+        }
+
+        public long get(int index) {
+            return cells[index];
+        }
+
+        public void set(int index, long value) {
+            cells[index] = (byte) value;
+        }
+
+        public int length() {
+            return cells.length;
+        }
+
+        public void resize(int newLength) {
+            cells = Arrays.copyOf(cells, newLength);
+        }
+
+        public void fill(int from, int to, long value) {
+            Arrays.fill(cells, from, to, (byte) value);
+        }
+
+        public void clear(int from, int to) {
+            for (int i = from; i < to; i++)
+                cells[i] = (byte) Math.min(cells[i], 0);
+        }
+
+        public int scan(int index, int stride) {
+            return scanBytes(cells, index, stride, true);
+        }
+
+        public void copy(int from, int to, int count) {
+            System.arraycopy(cells, from, cells, to, count);
+        }
+    }
+
+    /** Cells from 0 to 65535 stored in a char array */
+    static final class Chars extends Tape {
+        char[] cells;
+
+        Chars(int length) {
+            cells = new char[length];
+        }
+
+        public long get(int index) {
+            return cells[index];
+        }
+
+        public void set(int index, long value) {
+            cells[index] = (char) value;
+        }
+
+        public int length() {
+            return cells.length;
+        }
+
+        public void resize(int newLength) {
+            cells = Arrays.copyOf(cells, newLength);
+        }
+
+        public void fill(int from, int to, long value) {
+            Arrays.fill(cells, from, to, (char) value);
+        }
+
+        public void clear(int from, int to) {
+            Arrays.fill(cells, from, to, (char) 0);
+        }
+
+        public int scan(int index, int stride) {
+            while (index >= 0 && index < cells.length && cells[index] != 0)
+                index += stride;
+            return index;
+        }
+
+        public void copy(int from, int to, int count) {
+            System.arraycopy(cells, from, cells, to, count);
+        }
+    }
+
+    /** Cells from -32768 to 32767 stored in a short array */
+    static final class Shorts extends Tape {
+        short[] cells;
+
+        Shorts(int length) {
+            cells = new short[length];
+        }
+
+        public long get(int index) {
+            return cells[index];
+        }
+
+        public void set(int index, long value) {
+            cells[index] = (short) value;
+        }
+
+        public int length() {
+            return cells.length;
+        }
+
+        public void resize(int newLength) {
+            cells = Arrays.copyOf(cells, newLength);
+        }
+
+        public void fill(int from, int to, long value) {
+            Arrays.fill(cells, from, to, (short) value);
+        }
+
+        public void clear(int from, int to) {
+            for (int i = from; i < to; i++)
+                cells[i] = (short) Math.min(cells[i], 0);
+        }
+
+        public int scan(int index, int stride) {
+            while (index >= 0 && index < cells.length && cells[index] > 0)
+                index += stride;
+            return index;
+        }
+
+        public void copy(int from, int to, int count) {
+            System.arraycopy(cells, from, cells, to, count);
+        }
+    }
+
+    /** Cells from 0 to 4294967295 stored in an int array */
+    static final class UnsignedInts extends Tape {
+        int[] cells;
+
+        UnsignedInts(int length) {
+            cells = new int[length];
+        }
+
+        public long get(int index) {
+            return cells[index] & 0xFFFFFFFFL;
+        }
+
+        public void set(int index, long value) {
+            cells[index] = (int) value;
+        }
+
+        public int length() {
+            return cells.length;
+        }
+
+        public void resize(int newLength) {
+            cells = Arrays.copyOf(cells, newLength);
+        }
+
+        public void fill(int from, int to, long value) {
+            Arrays.fill(cells, from, to, (int) value);
+        }
+
+        public void clear(int from, int to) {
+            Arrays.fill(cells, from, to, 0);
+        }
+
+        public int scan(int index, int stride) {
+            while (index >= 0 && index < cells.length && cells[index] != 0)
+                index += stride;
+            return index;
+        }
+
+        public void copy(int from, int to, int count) {
+            System.arraycopy(cells, from, cells, to, count);
+        }
+    }
+
+    /** Cells from -2147483648 to 2147483647 stored in an int array */
+    static final class Ints extends Tape {
+        int[] cells;
+
+        Ints(int length) {
+            cells = new int[length];
+        }
+
+        public long get(int index) {
+            return cells[index];
+        }
+
+        public void set(int index, long value) {
+            cells[index] = (int) value;
+        }
+
+        public int length() {
+            return cells.length;
+        }
+
+        public void resize(int newLength) {
+            cells = Arrays.copyOf(cells, newLength);
+        }
+
+        public void fill(int from, int to, long value) {
+            Arrays.fill(cells, from, to, (int) value);
+        }
+
+        public void clear(int from, int to) {
+            for (int i = from; i < to; i++)
+                cells[i] = Math.min(cells[i], 0);
+        }
+
+        public int scan(int index, int stride) {
+            while (index >= 0 && index < cells.length && cells[index] > 0)
+                index += stride;
+            return index;
+        }
+
+        public void copy(int from, int to, int count) {
+            System.arraycopy(cells, from, cells, to, count);
+        }
+    }
+
+    /** Cells holding any long, stored in a long array */
+    static final class Longs extends Tape {
+        long[] cells;
+
+        Longs(int length) {
+            cells = new long[length];
+        }
+
+        Longs(long[] _cells) {
+            cells = _cells;
+        }
+
+        public long get(int index) {
+            return cells[index];
+        }
+
+        public void set(int index, long value) {
+            cells[index] = value;
+        }
+
+        public int length() {
+            return cells.length;
+        }
+
+        public void resize(int newLength) {
+            cells = Arrays.copyOf(cells, newLength);
+        }
+
+        public void fill(int from, int to, long value) {
+            Arrays.fill(cells, from, to, value);
+        }
+
+        public void clear(int from, int to) {
+            for (int i = from; i < to; i++)
+                cells[i] = Math.min(cells[i], 0);
+        }
+
+        public int scan(int index, int stride) {
+            while (index >= 0 && index < cells.length && cells[index] > 0)
+                index += stride;
+            return index;
+        }
+
+        public void copy(int from, int to, int count) {
+            System.arraycopy(cells, from, cells, to, count);
+        }
+
+        public void read(int index, LongBuffer values) {
+            values.put(cells, index, values.remaining());
+        }
+
+        public void write(int index, LongBuffer values) {
+            values.get(cells, index, values.remaining());
+        }
+
+        public long[] toArray() {
+            return cells.clone();
+        }
+
+        public void load(long[] values) {
+            cells = values.clone();
+        }
+    }
+}
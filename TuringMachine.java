@@ -1,23 +1,24 @@
+import java.nio.LongBuffer;
+
 /**
  * TuringMachine
  * 
  * @author Daniel Morgan
  * @description Implements the turing archatecture with basic methods to
- *              interact with it
+ *              interact with it. What programs do on the machine can be
+ *              counted with {@link BrainMetrics}.
  */
 public class TuringMachine {
     /** The default size of a tape */
     final private static int DEFAULT_SIZE = 1000;
+    /** The longest tape {@link #ensureTapeLength(int)} grows to on its own */
+    final private static int MAX_GROWN_SIZE = Integer.MAX_VALUE - 8;
     /** The length of the tape */
     private int tapeLength;
     /** Pointer to the current location on the tape */
-    private int pointer;
-    /** Array of values traversable by the turing machine */
-    private long tape[];
-    /** How many low level operations this machine has performed */
-    protected int lowOps = 0;
-    /** How many high level operations this machine has performed */
-    protected int highOps = 0;
+    protected int pointer;
+    /** Cells traversable by the turing machine */
+    protected Tape tape;
     /** If the program should error on the pointer going out of the bounds of the tape */
     protected boolean doesPointerSaftey;
 
@@ -29,11 +30,24 @@ public class TuringMachine {
      * @param size The length of the tape to be created with the machine
      */
     public TuringMachine(int size, boolean _doesPointerSaftey) {
-        tape = new long[size];
+        tape = new Tape.Longs(size);
         tapeLength = size;
         doesPointerSaftey = _doesPointerSaftey;
     }
 
+    /**
+     * Constructor to create a turing machine running on an existing tape, such as
+     * a {@link MappedTape} stored off the heap. The tape keeps its length.
+     * 
+     * @see #TuringMachine(int, boolean)
+     * @param _tape The tape to be used by the machine
+     */
+    public TuringMachine(Tape _tape, boolean _doesPointerSaftey) {
+        tape = _tape;
+        tapeLength = _tape.length();
+        doesPointerSaftey = _doesPointerSaftey;
+    }
+
     /**
      * Constructor to create a turing machine with the {@link #DEFAULT_SIZE default
      * tape size}.
@@ -43,36 +57,22 @@ public class TuringMachine {
      * @param size The length of the tape to be created with the machine
      */
     public TuringMachine() {
-        tape = new long[DEFAULT_SIZE];
+        tape = new Tape.Longs(DEFAULT_SIZE);
         tapeLength = DEFAULT_SIZE;
         doesPointerSaftey = false;
     }
 
     /**
-     * Writes an error message to the console and then exits the program
-     * 
-     * @param message The message to crash the program with.
-     * @return An empty abys for the few bits and bytes not cleaned up by the
-     *         garbage collector to float through in eternal darkness
-     */
-    protected void crash(String message) {
-        System.out.println("[ERROR]: " + message);
-        System.exit(1);
-    }
-
-    /**
-     * Sets the pointers position. Crashes the program if the new pointer position
-     * is in an invalid location.
+     * Sets the pointers position. Throws a {@link BrainPointerException} if the
+     * new pointer position is in an invalid location.
      * 
      * @param newPos The index in the {@link #tape tape array} to attempt to set the
      *               pointer to.
      */
     public void setPointer(int newPos) {
-        // increase number of low ops
-        lowOps += Math.abs(newPos - pointer);
         pointer = newPos;
         if (!isPointerValid())
-            crash("The pointer is in an invalid position: " + pointer);
+            throw new BrainPointerException(pointer, tape.length());
     }
 
     /**
@@ -82,8 +82,6 @@ public class TuringMachine {
      */
     // TODO: implement
     public int getPointer() {
-        // increase number of high ops
-        highOps++;
         return pointer;
     }
 
@@ -94,20 +92,24 @@ public class TuringMachine {
      * @param addlength
      */
     public void changeTapeLength(int addlength) {
-        // increase number of high ops
-        highOps++;
-        long[] newtape = new long[tape.length + addlength];
-        // check if removing cells or adding cells
-        if (newtape.length > tape.length)
-            // copy cells over
-            for (int i = 0; i < tape.length; i++)
-                newtape[i] = tape[i];
-        else
-            // removes cells at end of tape
-            for (int i = 0; i < newtape.length; i++)
-                newtape[i] = tape[i];
-        tape = newtape;
-        tapeLength = tape.length;
+        tape.resize(tape.length() + addlength);
+        tapeLength = tape.length();
+    }
+
+    /**
+     * Makes sure the tape has at least the specified length, growing it by at
+     * least half its length when it is too short. Hosts writing to the tape a
+     * little further each time only copy the tape a logarithmic number of times
+     * rather than on every write.
+     * 
+     * @param minLength The smallest length the tape may have.
+     */
+    public void ensureTapeLength(int minLength) {
+        int length = tape.length();
+        if (length >= minLength)
+            return;
+        int grown = (int) Math.min(MAX_GROWN_SIZE, length + (long) (length >> 1));
+        changeTapeLength(Math.max(minLength, grown) - length);
     }
 
     /**
@@ -116,9 +118,7 @@ public class TuringMachine {
      * @param newlength The new length to attempt to set the length of the tape to.
      */
     public void setTapeLength(int newlength) {
-        // increase number of high ops
-        highOps++;
-        changeTapeLength(newlength - tape.length);
+        changeTapeLength(newlength - tape.length());
     }
 
     // TODO: implement
@@ -128,9 +128,7 @@ public class TuringMachine {
      * @return The length of the tape.
      */
     public int getTapeLength() {
-        // increase number of high ops
-        highOps++;
-        return tape.length;
+        return tape.length();
     }
 
     // TODO: implement
@@ -140,21 +138,91 @@ public class TuringMachine {
      * @param newTape The tape to set as the current tape.
      */
     public void setTape(long[] newTape) {
-        // increase number of high ops
-        highOps++;
-        tape = newTape.clone();
+        tape.load(newTape);
+        tapeLength = tape.length();
     }
 
     // TODO: implement
     /**
-     * Gets the current tape.
+     * Gets the current tape. If the cells are stored in a narrower type than long
+     * this is a copy of the tape.
      * 
+     * @see #getTapeView()
+     * @see #readTape(int, LongBuffer)
      * @return The current tape.
      */
     public long[] getTape() {
-        // increase number of high ops
-        highOps++;
-        return tape;
+        if (tape instanceof Tape.Longs)
+            return ((Tape.Longs) tape).cells;
+        return tape.toArray();
+    }
+
+    /**
+     * Gets a read only view of the tape which reads straight from its cells
+     * without copying them, and keeps following the machine if its tape is
+     * replaced, resized or stored in another type.
+     * 
+     * @return A view of the current tape.
+     */
+    public Tape getTapeView() {
+        return new TapeView();
+    }
+
+    /**
+     * Sets every cell in a range of the tape to the same value.
+     * 
+     * @param from  The index of the first cell, inclusive.
+     * @param to    The index of the last cell, exclusive.
+     * @param value The value to set the cells to.
+     */
+    public void fillTape(int from, int to, long value) {
+        tape.fill(from, to, value);
+    }
+
+    /**
+     * Copies a range of cells to another place on the tape. The ranges may
+     * overlap.
+     * 
+     * @param from  The index of the first cell to copy.
+     * @param to    The index of the first cell to copy it to.
+     * @param count The number of cells to copy.
+     */
+    public void copyTape(int from, int to, int count) {
+        tape.copy(from, to, count);
+    }
+
+    /**
+     * Reads cells of the tape into a buffer, from the passed index until the
+     * buffer is full.
+     * 
+     * @param index  The index of the first cell to read.
+     * @param values The buffer to read the cells into.
+     */
+    public void readTape(int index, LongBuffer values) {
+        tape.read(index, values);
+    }
+
+    /**
+     * Writes the remaining values of a buffer to the tape from the passed index,
+     * e.g. to load a large dataset for a program to work on.
+     * 
+     * @param index  The index of the first cell to write.
+     * @param values The values to write.
+     */
+    public void writeTape(int index, LongBuffer values) {
+        tape.write(index, values);
+    }
+
+    /**
+     * Stores the cells in the narrowest type able to hold every value from min
+     * to max, keeping their current values.
+     * 
+     * @see Tape#forRange(long, long, int)
+     * @param min The smallest value a cell will hold.
+     * @param max The largest value a cell will hold.
+     */
+    protected void fitTape(long min, long max) {
+        tape = tape.forRange(min, max);
     }
 
     /**
@@ -164,9 +232,7 @@ public class TuringMachine {
      * @param val The value to set the cell under the pointer to.
      */
     public void set(long val) {
-        // increase number of low ops
-        lowOps++;
-        tape[pointer] = val;
+        tape.set(pointer, val);
     }
 
     /**
@@ -177,15 +243,13 @@ public class TuringMachine {
      *         {@link #tape current tape}.
      */
     public long get() {
-        // increase number of low ops
-        lowOps++;
-        return tape[pointer];
+        return tape.get(pointer);
     }
 
     /**
      * Moves the pointer n spaces and returns the value there (positive n to the
-     * right, negetive n to the left). Crashes the program if the new pointer
-     * position is in an invalid location.
+     * right, negetive n to the left). Throws a {@link BrainPointerException} if
+     * the new pointer position is in an invalid location.
      * 
      * @param n The number of spaces to move the {@link #pointer pointer} along the
      *          {@link #tape tape}
@@ -195,28 +259,8 @@ public class TuringMachine {
     public long traverse(int n) {
         pointer += n;
         if (!isPointerValid())
-            crash("The pointer is in an invalid position: " + pointer);
-        // increase number of low ops
-        lowOps++;
-        return tape[pointer];
-    }
-
-    /**
-     * Statistics on the number of low level operations.
-     * 
-     * @return Statistics on the number of low level operations.
-     */
-    public int getLowOps() {
-        return lowOps;
-    }
-
-    /**
-     * Statistics on the number of high level operations.
-     * 
-     * @return Statistics on the number of low level operations.
-     */
-    public int getHighOps() {
-        return highOps;
+            throw new BrainPointerException(pointer, tape.length());
+        return tape.get(pointer);
     }
 
     /**
@@ -241,6 +285,53 @@ public class TuringMachine {
      */
     private boolean isPointerValid() {
         if (!doesPointerSaftey) return true;
-        return (pointer >= 0 && pointer < tape.length);
+        return (pointer >= 0 && pointer < tape.length());
+    }
+
+    /** A read only view of whichever tape the machine is using */
+    private class TapeView extends Tape {
+        public long get(int index) {
+            return tape.get(index);
+        }
+
+        public void set(int index, long value) {
+            throw new UnsupportedOperationException("The tape view is read only");
+        }
+
+        public int length() {
+            return tape.length();
+        }
+
+        public void resize(int newLength) {
+            throw new UnsupportedOperationException("The tape view is read only");
+        }
+
+        public void fill(int from, int to, long value) {
+            throw new UnsupportedOperationException("The tape view is read only");
+        }
+
+        public void copy(int from, int to, int count) {
+            throw new UnsupportedOperationException("The tape view is read only");
+        }
+
+        public void write(int index, LongBuffer values) {
+            throw new UnsupportedOperationException("The tape view is read only");
+        }
+
+        public void load(long[] values) {
+            throw new UnsupportedOperationException("The tape view is read only");
+        }
+
+        public boolean isUnbounded() {
+            return tape.isUnbounded();
+        }
+
+        public long[] toArray() {
+            return tape.toArray();
+        }
+
+        public void read(int index, LongBuffer values) {
+            tape.read(index, values);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,222 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Brain
+ *
+ * @author Daniel Morgan
+ * @description Calls into the interpreter for the benchmarks. The interpreter
+ *              lives in the default package, which a class in a package can
+ *              not import, so its classes are looked up by name once and called
+ *              through constant method handles, which the JIT compiles like
+ *              direct calls. Programs are read from the classpath, where the
+ *              build puts the bundled examples under examples/ and the heavy
+ *              programs under programs/.
+ */
+final class Brain {
+    /** The class of programs which ran past their limits */
+    static final Class<?> LIMIT_EXCEPTION = find("BrainLimitException");
+
+    private static final MethodHandle NEW_PARSER;
+    private static final MethodHandle NEW_INPUT;
+    private static final MethodHandle NEW_OUTPUT;
+    private static final MethodHandle PARSE;
+    private static final MethodHandle RUN_PROGRAM;
+    private static final MethodHandle SET_INPUT;
+    private static final MethodHandle SET_OUTPUT;
+    private static final MethodHandle SET_STEP_LIMIT;
+    private static final MethodHandle GET_STEPS;
+    private static final MethodHandle CHANGE_TAPE_LENGTH;
+    private static final MethodHandle GET_TAPE_LENGTH;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Class<?> parser = find("BrainParser");
+        Class<?> input = find("BrainInput");
+        Class<?> output = find("BrainOutput");
+        try {
+            NEW_PARSER = erase(lookup.findConstructor(parser, MethodType.methodType(void.class, String.class)));
+            NEW_INPUT = erase(lookup.findConstructor(input, MethodType.methodType(void.class, InputStream.class)));
+            NEW_OUTPUT = erase(lookup.findConstructor(output, MethodType.methodType(void.class, OutputStream.class)));
+            PARSE = erase(lookup.findVirtual(parser, "parse",
+                    MethodType.methodType(java.util.ArrayList.class, String.class)));
+            RUN_PROGRAM = erase(lookup.findVirtual(parser, "runProgram",
+                    MethodType.methodType(void.class, String.class)));
+            SET_INPUT = erase(lookup.findVirtual(parser, "setInput", MethodType.methodType(void.class, input)));
+            SET_OUTPUT = erase(lookup.findVirtual(parser, "setOutput", MethodType.methodType(void.class, output)));
+            SET_STEP_LIMIT = erase(lookup.findVirtual(parser, "setStepLimit",
+                    MethodType.methodType(void.class, long.class)));
+            GET_STEPS = erase(lookup.findVirtual(parser, "getSteps", MethodType.methodType(long.class)));
+            CHANGE_TAPE_LENGTH = erase(lookup.findVirtual(parser, "changeTapeLength",
+                    MethodType.methodType(void.class, int.class)));
+            GET_TAPE_LENGTH = erase(lookup.findVirtual(parser, "getTapeLength", MethodType.methodType(int.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Brain() {
+    }
+
+    /**
+     * Creates a parser for a language standard.
+     *
+     * @param standard The language standard, such as tacobell, bp or extbp.
+     * @return The BrainParser.
+     */
+    static Object newParser(String standard) {
+        try {
+            return (Object) NEW_PARSER.invokeExact((Object) standard);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Gives a parser the passed bytes as input and throws its output away.
+     *
+     * @param parser The BrainParser.
+     * @param input  The input of the program.
+     */
+    static void connect(Object parser, byte[] input) {
+        try {
+            SET_INPUT.invokeExact(parser, (Object) NEW_INPUT.invokeExact((Object) new ByteArrayInputStream(input)));
+            SET_OUTPUT.invokeExact(parser, (Object) NEW_OUTPUT.invokeExact((Object) OutputStream.nullOutputStream()));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Splits a program into tokens with BrainParser.parse.
+     */
+    static Object parse(Object parser, String program) {
+        try {
+            return (Object) PARSE.invokeExact(parser, (Object) program);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Compiles and runs a program with BrainParser.runProgram.
+     */
+    static void runProgram(Object parser, String program) {
+        try {
+            RUN_PROGRAM.invokeExact(parser, (Object) program);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Sets the most steps a parser runs a program for.
+     */
+    static void setStepLimit(Object parser, long stepLimit) {
+        try {
+            SET_STEP_LIMIT.invokeExact(parser, stepLimit);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Gets the number of steps the last program run by a parser took.
+     */
+    static long getSteps(Object parser) {
+        try {
+            return (long) GET_STEPS.invokeExact(parser);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Changes the length of the tape of a parser with
+     * TuringMachine.changeTapeLength.
+     */
+    static void changeTapeLength(Object parser, int addLength) {
+        try {
+            CHANGE_TAPE_LENGTH.invokeExact(parser, addLength);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Gets the length of the tape of a parser.
+     */
+    static int getTapeLength(Object parser) {
+        try {
+            return (int) GET_TAPE_LENGTH.invokeExact(parser);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Reads a program from the classpath, trimming and joining its lines just
+     * like BrainParser.readProgram does for files.
+     *
+     * @param name The name of the program without .bp, found in either
+     *             examples/ or programs/.
+     * @return The source of the program.
+     */
+    static String load(String name) {
+        InputStream stream = Brain.class.getResourceAsStream("/examples/" + name + ".bp");
+        if (stream == null)
+            stream = Brain.class.getResourceAsStream("/programs/" + name + ".bp");
+        if (stream == null)
+            throw new IllegalArgumentException("There is no program called " + name);
+        StringBuilder program = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                program.append(line.trim());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return program.toString();
+    }
+
+    /**
+     * Looks up a class of the interpreter.
+     */
+    private static Class<?> find(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Replaces every class in the type of a handle with Object, so it can be
+     * invoked exactly without naming the classes of the interpreter.
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        return handle.asType(handle.type().erase());
+    }
+
+    /**
+     * Throws anything thrown through a method handle unchanged.
+     */
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        throw new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MandelbrotBenchmark
+ *
+ * @author Daniel Morgan
+ * @description Measures BrainParser.runProgram drawing the Mandelbrot set, the
+ *              heaviest of the programs. Its fixed point numbers go negative,
+ *              which only the extbp standard allows, so unlike
+ *              {@link RunBenchmark} it is not run under tacobell or bp.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MandelbrotBenchmark {
+    /** The language standard the program is run with */
+    @Param({ "extbp" })
+    public String standard;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        source = Brain.load("mandelbrot");
+    }
+
+    @Benchmark
+    public long runProgram() {
+        return RunBenchmark.run(standard, source, new byte[0]);
+    }
+}
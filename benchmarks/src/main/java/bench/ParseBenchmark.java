@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ParseBenchmark
+ *
+ * @author Daniel Morgan
+ * @description Measures splitting the source of every bundled and heavy
+ *              program into tokens with BrainParser.parse.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    /** The language standard the parser is created with */
+    @Param({ "tacobell", "bp", "extbp" })
+    public String standard;
+    /** The program parsed */
+    @Param({ "helloworld", "helloworldp", "triangle", "counter", "hanoi", "mandelbrot" })
+    public String program;
+
+    private Object parser;
+    private String source;
+
+    @Setup
+    public void setUp() {
+        parser = Brain.newParser(standard);
+        source = Brain.load(program);
+    }
+
+    @Benchmark
+    public Object parse() {
+        return Brain.parse(parser, source);
+    }
+}
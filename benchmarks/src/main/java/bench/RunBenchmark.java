@@ -0,0 +1,95 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RunBenchmark
+ *
+ * @author Daniel Morgan
+ * @description Measures BrainParser.runProgram on the bundled examples and the
+ *              heavy programs, from a new parser every time just like running
+ *              a file from the command line, so compiling and allocating the
+ *              tape are included. Output is thrown away.
+ *              <p>
+ *              Some programs never end under some standards (triangle keeps
+ *              wrapping its cells under bp), so every run is stopped after
+ *              {@link #STEP_LIMIT} steps and such programs measure exactly that
+ *              many steps. The Mandelbrot set needs negative cells, so it is
+ *              measured by {@link MandelbrotBenchmark} under extbp only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunBenchmark {
+    /** The most steps a program is run for */
+    static final long STEP_LIMIT = 100_000_000;
+
+    /** The language standard the program is run with */
+    @Param({ "tacobell", "bp", "extbp" })
+    public String standard;
+    /** The program run */
+    @Param({ "helloworld", "helloworldp", "triangle", "counter", "hanoi" })
+    public String program;
+
+    private String source;
+    private byte[] input;
+
+    @Setup
+    public void setUp() {
+        source = Brain.load(program);
+        input = inputOf(program).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public long runProgram() {
+        return run(standard, source, input);
+    }
+
+    /**
+     * Runs a program on a new parser.
+     *
+     * @return The number of steps the program ran for.
+     */
+    static long run(String standard, String source, byte[] input) {
+        Object parser = Brain.newParser(standard);
+        Brain.connect(parser, input);
+        Brain.setStepLimit(parser, STEP_LIMIT);
+        try {
+            Brain.runProgram(parser, source);
+        } catch (RuntimeException e) {
+            if (!Brain.LIMIT_EXCEPTION.isInstance(e))
+                throw e;
+        }
+        return Brain.getSteps(parser);
+    }
+
+    /**
+     * Gets the input a program is run with.
+     */
+    static String inputOf(String program) {
+        switch (program) {
+            case "triangle":
+                return "20";
+            case "hanoi":
+                return "14";
+            default:
+                return "";
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TapeBenchmark
+ *
+ * @author Daniel Morgan
+ * @description Measures TuringMachine.changeTapeLength growing the tape of a
+ *              parser and shrinking it back to the length its standard starts
+ *              with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TapeBenchmark {
+    /** The language standard the parser is created with */
+    @Param({ "tacobell", "bp", "extbp" })
+    public String standard;
+    /** The number of cells the tape grows by */
+    @Param({ "1", "1000", "100000" })
+    public int growth;
+
+    private Object parser;
+
+    @Setup
+    public void setUp() {
+        parser = Brain.newParser(standard);
+    }
+
+    @Benchmark
+    public int changeTapeLength() {
+        Brain.changeTapeLength(parser, growth);
+        Brain.changeTapeLength(parser, -growth);
+        return Brain.getTapeLength(parser);
+    }
+}
@@ -0,0 +1,355 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * BrainDifferentialTest
+ *
+ * @author Daniel Morgan
+ * @description Runs programs through every way a program can be run and
+ *              checks each one behaves exactly like the unoptimized
+ *              interpreter: optimized, JIT compiled, started from a prefix
+ *              run ahead of time, loaded from a .bpc file and run in
+ *              lockstep. Runs are compared on their output, tape, pointer
+ *              and the type of exception they fail with. Most programs are
+ *              generated from a seed, mixing gotos, folded moves and adds, and
+ *              loops the optimizer rewrites, on short tapes so they often
+ *              leave them.
+ */
+public class BrainDifferentialTest {
+    /** The number of generated programs run by each seeded test */
+    private static final int PROGRAMS = 300;
+    /** Input given to runs, with numbers and words so reading numbers sometimes fails */
+    private static final String INPUT = "hello 12 world -34 5 bp 67 yes 89 no 1,000 ";
+    /** Input given to the second lane of lockstep runs */
+    private static final String OTHER_INPUT = "7 a 8 b 9 c 10 d 11 e 12 f 13 g ";
+
+    @TempDir
+    File directory;
+
+    /**
+     * The settings a program is run with.
+     */
+    private static class Settings {
+        String standard = "extbp";
+        int tapeLength = 12;
+        int pointer = 5;
+        long[] tape;
+        boolean pointerSaftey = false;
+        boolean pointerWrapping = false;
+        boolean wrapping = true;
+
+        public String toString() {
+            return standard + " tape " + tapeLength + " pointer " + pointer + " saftey " + pointerSaftey
+                    + " pointer wrapping " + pointerWrapping + " wrapping " + wrapping;
+        }
+    }
+
+    /**
+     * What a run did, compared against the unoptimized run.
+     */
+    private static class Outcome {
+        String output;
+        long[] tape;
+        int pointer;
+        Class<?> error;
+
+        /**
+         * Checks another run did the same as this one. The pointer is only
+         * known for runs which finish or fail on it, as the optimizer moves the
+         * pointer once per run of instructions.
+         */
+        void assertSame(Outcome other, String what) {
+            assertEquals(error, other.error, what + ": error");
+            assertEquals(output, other.output, what + ": output");
+            if (tape != null && other.tape != null)
+                assertArrayEquals(tape, other.tape, what + ": tape");
+            if (error == null || error == BrainPointerException.class)
+                assertEquals(pointer, other.pointer, what + ": pointer");
+        }
+    }
+
+    @Test
+    public void cancellingAddsStillCheckTheCell() {
+        assertAllAlike("^{12}-+", new Settings());
+        assertAllAlike("^{12}+-+-", new Settings());
+    }
+
+    @Test
+    public void foldedMovesFailAtTheFirstCellOffTheTape() {
+        Settings settings = new Settings();
+        settings.tapeLength = 8;
+        assertAllAlike("^{9}<<", settings);
+        assertAllAlike("^{-3}>>>>>+", settings);
+        assertAllAlike(">>>>>>>>>>", settings);
+        assertAllAlike("<<<<<<<<<+", settings);
+    }
+
+    @Test
+    public void cellsAreCheckedAfterAGoto() {
+        assertAllAlike("^{12}[-]", new Settings());
+        assertAllAlike("^{-1}.", new Settings());
+        assertAllAlike("^{12}[->+<]", new Settings());
+    }
+
+    @Test
+    public void programsMayStartOffTheTape() {
+        Settings settings = new Settings();
+        settings.tapeLength = 8;
+        settings.pointer = -2;
+        assertAllAlike(">>+", settings);
+        assertAllAlike(">>[-]", settings);
+        assertAllAlike(">>>", settings);
+        assertAllAlike(">>>+<", settings);
+    }
+
+    @Test
+    public void setsAndInputCheckTheCellFirst() {
+        Settings settings = new Settings();
+        settings.standard = "tacobell";
+        settings.pointer = 0;
+        settings.wrapping = false;
+        assertAllAlike("<={296}", settings);
+        assertAllAlike(".<,", settings);
+        assertAllAlike("<,{'c'}", settings);
+    }
+
+    @Test
+    public void commandsWrapBeforeStoringOnNarrowCells() {
+        BrainParser parser = new BrainParser("tacobell");
+        parser.runCommand("set", "T255");
+        parser.runCommand("incr");
+        assertEquals(1, parser.get());
+        parser.runCommand("set", "T0");
+        parser.runCommand("decr");
+        assertEquals(254, parser.get());
+        parser.runCommand("set", "T300");
+        assertEquals(45, parser.get());
+        parser.runCommand("incr", "T220");
+        assertEquals(10, parser.get());
+    }
+
+    @Test
+    public void commandsMatchCompiledRunsOnNarrowCells() {
+        String[][] commands = { { "set", "T255" }, { "incr", "T1" }, { "decr", "T3" }, { "incr", "T250" },
+                { "set", "T-1" }, { "decr", "T255" } };
+        BrainParser parser = new BrainParser("tacobell");
+        StringBuilder program = new StringBuilder();
+        for (String[] command : commands) {
+            parser.runCommand(command[0], command[1]);
+            String value = command[1].substring(1);
+            program.append(command[0].equals("set") ? "=" : command[0].equals("incr") ? "+" : "-")
+                    .append("{").append(value).append("}");
+            BrainParser compiled = new BrainParser("tacobell");
+            compiled.setOptimizing(false);
+            compiled.runProgram(program.toString());
+            assertEquals(compiled.get(), parser.get(), program.toString());
+        }
+    }
+
+    @Test
+    public void randomProgramsWithWrappingCells() throws IOException {
+        runRandomPrograms(1, true);
+    }
+
+    @Test
+    public void randomProgramsWithoutWrappingCells() throws IOException {
+        runRandomPrograms(1000, false);
+    }
+
+    /**
+     * Runs generated programs with random settings, skipping those which run
+     * into the step limit as optimized runs take fewer steps.
+     */
+    private void runRandomPrograms(long seed, boolean wrapping) throws IOException {
+        String[] standards = { "extbp", "tacobell", "bp" };
+        for (int i = 0; i < PROGRAMS; i++) {
+            Random random = new Random(seed + i);
+            Settings settings = new Settings();
+            settings.standard = standards[random.nextInt(standards.length)];
+            settings.tapeLength = 4 + random.nextInt(12);
+            settings.pointer = random.nextInt(settings.tapeLength);
+            settings.pointerSaftey = random.nextBoolean();
+            settings.pointerWrapping = random.nextInt(3) == 0;
+            settings.wrapping = wrapping;
+            if (random.nextBoolean()) {
+                settings.tape = new long[settings.tapeLength];
+                for (int k = 0; k < 3; k++)
+                    settings.tape[random.nextInt(settings.tapeLength)] = random.nextInt(4);
+            }
+            String program = generate(random, 0, settings.standard.equals("bp"));
+            assertAllAlike(program, settings);
+        }
+    }
+
+    /**
+     * Generates a random program.
+     *
+     * @param depth How deeply the program is nested in loops.
+     * @param plain If only commands every standard has may be used.
+     */
+    private static String generate(Random random, int depth, boolean plain) {
+        StringBuilder program = new StringBuilder();
+        int length = 1 + random.nextInt(10);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(depth > 1 ? 10 : 13)) {
+                case 0:
+                    program.append(">".repeat(1 + random.nextInt(4)));
+                    break;
+                case 1:
+                    program.append("<".repeat(1 + random.nextInt(4)));
+                    break;
+                case 2:
+                    program.append(random.nextBoolean() ? "+-" : "+".repeat(1 + random.nextInt(3)));
+                    break;
+                case 3:
+                    program.append(random.nextBoolean() ? "-" : "-{" + random.nextInt(300) + "}");
+                    break;
+                case 4:
+                    if (!plain)
+                        program.append("^{").append(random.nextInt(20) - 4).append("}");
+                    break;
+                case 5:
+                    if (!plain)
+                        program.append("={").append(random.nextInt(320) - 20).append("}");
+                    break;
+                case 6:
+                    program.append(random.nextBoolean() ? "." : random.nextBoolean() ? ".{'c'}" : ">.<");
+                    break;
+                case 7:
+                    program.append(random.nextBoolean() ? "," : ",{'c'}");
+                    break;
+                case 8:
+                    program.append("[-]");
+                    break;
+                case 9:
+                    program.append(random.nextBoolean() ? "[>]" : "[<<]");
+                    break;
+                case 10:
+                    program.append(random.nextBoolean() ? "[->+<]" : "[->>+++<<]");
+                    break;
+                case 11:
+                    program.append("[>").append(generate(random, depth + 1, plain)).append("<-]");
+                    break;
+                default:
+                    program.append(">[-]>[-]>[-]<<<");
+                    break;
+            }
+        }
+        return program.toString();
+    }
+
+    /**
+     * Runs a program every way it can be run and checks each matches the
+     * unoptimized run.
+     */
+    private void assertAllAlike(String program, Settings settings) {
+        String what = program + " (" + settings + ")";
+        Outcome expected = run(program, settings, INPUT, false, false, false, false);
+        // optimized runs count fewer steps, so they would stop elsewhere
+        if (expected.error == BrainLimitException.class)
+            return;
+        expected.assertSame(run(program, settings, INPUT, true, false, false, false), "optimized " + what);
+        expected.assertSame(run(program, settings, INPUT, true, true, false, false), "jit " + what);
+        expected.assertSame(run(program, settings, INPUT, true, false, true, false), "prefix " + what);
+        expected.assertSame(run(program, settings, INPUT, true, true, true, true), "bpc " + what);
+
+        Outcome other = run(program, settings, OTHER_INPUT, false, false, false, false);
+        List<BrainLockstep.Result> lanes = lockstep(program, settings);
+        expected.assertSame(outcome(lanes.get(0)), "lockstep " + what);
+        if (other.error != BrainLimitException.class)
+            other.assertSame(outcome(lanes.get(1)), "lockstep second lane " + what);
+    }
+
+    /**
+     * Creates a parser with the passed settings.
+     */
+    private static BrainParser parser(Settings settings) {
+        BrainParser parser = new BrainParser(settings.standard);
+        parser.setTapeLength(settings.tapeLength);
+        if (settings.tape != null)
+            parser.setTape(settings.tape.clone());
+        parser.setPointer(settings.pointer);
+        parser.setPointerSaftey(settings.pointerSaftey);
+        parser.setPointerWrapping(settings.pointerWrapping);
+        parser.setWrapping(settings.wrapping);
+        parser.setStepLimit(100_000);
+        return parser;
+    }
+
+    /**
+     * Runs a program once.
+     *
+     * @param optimizing  If the program is optimized.
+     * @param jit         If the program is JIT compiled.
+     * @param precomputing If the start of the program is run ahead of time.
+     * @param saved       If the program is saved as a .bpc file and loaded again.
+     */
+    private Outcome run(String program, Settings settings, String input, boolean optimizing, boolean jit,
+            boolean precomputing, boolean saved) {
+        BrainParser parser = parser(settings);
+        parser.setOptimizing(optimizing);
+        parser.setJitCompiling(jit);
+        parser.setPrecomputing(precomputing);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        parser.setOutput(new BrainOutput(output));
+        parser.setInput(new BrainInput(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))));
+        Outcome outcome = new Outcome();
+        try {
+            BrainProgram compiled;
+            if (saved) {
+                File source = new File(directory, "program.bp");
+                File bpc = new File(directory, "program.bpc");
+                Files.write(source.toPath(), program.getBytes(StandardCharsets.UTF_8));
+                parser.precompile(source, bpc);
+                compiled = parser.compile(bpc);
+            } else {
+                compiled = parser.compile(program);
+            }
+            parser.execute(compiled);
+        } catch (BrainException e) {
+            outcome.error = e.getClass();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        outcome.output = output.toString(StandardCharsets.UTF_8);
+        outcome.tape = parser.getTape();
+        outcome.pointer = parser.getPointer();
+        return outcome;
+    }
+
+    /**
+     * Runs a program in lockstep over both inputs.
+     */
+    private static List<BrainLockstep.Result> lockstep(String program, Settings settings) {
+        BrainParser parser = parser(settings);
+        List<InputStream> inputs = new ArrayList<InputStream>();
+        inputs.add(new ByteArrayInputStream(INPUT.getBytes(StandardCharsets.UTF_8)));
+        inputs.add(new ByteArrayInputStream(OTHER_INPUT.getBytes(StandardCharsets.UTF_8)));
+        return parser.runLockstep(program, inputs);
+    }
+
+    /**
+     * Gives what a lane of a lockstep run did, which does not keep its tape.
+     */
+    private static Outcome outcome(BrainLockstep.Result result) {
+        Outcome outcome = new Outcome();
+        outcome.output = new String(result.output, StandardCharsets.UTF_8);
+        outcome.pointer = result.pointer;
+        outcome.error = result.error != null ? result.error.getClass() : null;
+        return outcome;
+    }
+}